@@ -0,0 +1,964 @@
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ Benchmarks and checks of the tree and the force calculation. They run without a canvas and are kept in bench, out
+ of the sources of the simulator, like {@link GcCheck}:
+ <p>javac -cp "lib/*" -d out src/*.java && javac -cp "out:lib/*" -d out bench/*.java</p>
+ <p>java -cp "out:lib/*" Benchmark mode [number of bodies] [theta]</p>
+ <p>alloc: checks that a simulation step allocates nothing once the tree has reached its steady size,
+ the exit code is 1 if it does.</p>
+ <p>walk: compares the iterative walks of the tree with the recursive ones.</p>
+ <p>group: compares the group walk for several group sizes with the walk of every single body.</p>
+ <p>crossover: finds the number of bodies from which Barnes-Hut is faster than the direct summation.</p>
+ <p>quadrupole: compares error and time of monopole and quadrupole nodes against the direct summation for several
+ values of theta.</p>
+ <p>criteria: compares interactions, error and time of the multipole acceptance criteria against the direct
+ summation.</p>
+ <p>fmm: compares error and time of the fast multipole method for several orders with Barnes-Hut, then finds the
+ number of bodies from which it is faster than Barnes-Hut at the same accuracy, on clusters of equal masses.</p>
+ <p>kernel: compares the batched {@link InteractionKernel} with the plain loop over the interactions.</p>
+ <p>theta: lets the {@link ThetaController} reach an error target and a time budget, step by step.</p>
+ <p>sampler: percentiles the {@link AccuracySampler} records for several values of theta, and its cost per step.</p>
+ <p>energy: relative energy error of semi-implicit Euler and leapfrog over long runs with the direct summation.</p>
+ <p>block: force calculations, energy error and time of block time steps against leapfrog with the smallest step.</p>
+ <p>refit: cost of {@link Tree#update()} against a rebuild of the tree every step, over a long run.</p>
+ <p>leaf: nodes, build and walk time for every leaf capacity, and the capacity {@link LeafCapacityTuner} chooses.</p>
+ <p>bounds: root size, height, nodes and times of the self-sizing root for clusters of decreasing size, and the culling
+ of escaped bodies.</p>
+ <p>depth: nodes, overflow leaves and times for several maximum depths, with many bodies sharing positions.</p>
+ <p>aggregate: the fused reverse sweep over the nodes, serial and in parallel, with and without quadrupoles.</p>
+ <p>vector: time and allocation of a direct summation over {@link Body} views with the immutable {@link Vector3}
+ methods against the in-place ones.</p>
+ <p>single: accuracy report of the single precision group walk against the double one and the direct summation.</p>
+ */
+public class Benchmark {
+
+    private static double theta;
+
+    public static void main(String[] args) {
+        String mode = args.length > 0 ? args[0] : "alloc";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        theta = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        if (mode.equals("alloc")) {
+            allocation(n);
+        } else if (mode.equals("walk")) {
+            walks(n);
+        } else if (mode.equals("group")) {
+            groups(n);
+        } else if (mode.equals("crossover")) {
+            crossover();
+        } else if (mode.equals("quadrupole")) {
+            quadrupoles(n);
+        } else if (mode.equals("criteria")) {
+            criteria(n);
+        } else if (mode.equals("fmm")) {
+            fmm(n);
+        } else if (mode.equals("kernel")) {
+            kernel(n);
+        } else if (mode.equals("theta")) {
+            thetaControl(n);
+        } else if (mode.equals("sampler")) {
+            sampler(n);
+        } else if (mode.equals("energy")) {
+            energy(n);
+        } else if (mode.equals("block")) {
+            blockSteps(n);
+        } else if (mode.equals("refit")) {
+            refit(n);
+        } else if (mode.equals("leaf")) {
+            leafCapacities(n);
+        } else if (mode.equals("bounds")) {
+            bounds(n);
+        } else if (mode.equals("depth")) {
+            depths(n);
+        } else if (mode.equals("aggregate")) {
+            aggregation(n);
+        } else if (mode.equals("vector")) {
+            vectors(n);
+        } else if (mode.equals("single")) {
+            singlePrecision(n);
+        } else {
+            System.out.println("Unknown mode " + mode);
+            System.exit(2);
+        }
+    }
+
+    /**
+     @return n random bodies like the ones of Simulation, but reproducible with 'seed'. The first body is Sol.
+     */
+    static BodyStore randomBodies(int n, long seed) {
+        Random rng = new Random(seed);
+        BodyStore store = new BodyStore(n);
+        store.add(new Body("Sol", 1.989e32, 696340e3, new Vector3(0, 0, 0), new Vector3(0, 0, 0), Color.YELLOW));
+        for (int i = 1; i < n; i++) {
+            double w = 0.2 * Simulation.Window;
+            Vector3 position = new Vector3(rng.nextGaussian() * w, rng.nextGaussian() * w, rng.nextGaussian() * w);
+            Vector3 movement = new Vector3(rng.nextGaussian() * 1e4, rng.nextGaussian() * 1e4, rng.nextGaussian() * 1e4);
+            store.add(new Body("b" + i, 4.2e24 * rng.nextDouble(), 5e6, position, movement, Color.WHITE));
+        }
+        return store;
+    }
+
+    /**
+     @return n bodies of equal mass in a gaussian cluster of the size of the ones of {@link #randomBodies(int, long)},
+     reproducible with 'seed'. There is no Sol, so the far field is not dominated by a single body.
+     */
+    static BodyStore clusterBodies(int n, long seed) {
+        Random rng = new Random(seed);
+        BodyStore store = new BodyStore(n);
+        double w = 0.2 * Simulation.Window;
+        for (int i = 0; i < n; i++) {
+            Vector3 position = new Vector3(rng.nextGaussian() * w, rng.nextGaussian() * w, rng.nextGaussian() * w);
+            store.add(new Body("b" + i, 1e24, 5e6, position, new Vector3(0, 0, 0), Color.WHITE));
+        }
+        return store;
+    }
+
+    /**
+     @return Sol and n - 1 light bodies on circular orbits around it, radius 0.3 to 2 AU in random planes,
+     reproducible with 'seed'. Unlike {@link #randomBodies(int, long)} no body falls into Sol, so an integrator
+     can keep the energy.
+     */
+    static BodyStore orbitingBodies(int n, long seed) {
+        return orbitingBodies(n, seed, 0.3, 2);
+    }
+
+    // orbitingBodies with radii from 'inner' to 'outer' AU
+    static BodyStore orbitingBodies(int n, long seed, double inner, double outer) {
+        Random rng = new Random(seed);
+        BodyStore store = new BodyStore(n);
+        double sol = 1.989e32;
+        store.add(new Body("Sol", sol, 696340e3, new Vector3(0, 0, 0), new Vector3(0, 0, 0), Color.YELLOW));
+        double eps2 = Gravity.softening2();
+        for (int i = 1; i < n; i++) {
+            double r = (inner + (outer - inner) * rng.nextDouble()) * Simulation.AU;
+            // unit vector u in a random direction and unit vector w perpendicular to it
+            double ux = rng.nextGaussian(), uy = rng.nextGaussian(), uz = rng.nextGaussian();
+            double wx = rng.nextGaussian(), wy = rng.nextGaussian(), wz = rng.nextGaussian();
+            double lu = Math.sqrt(ux * ux + uy * uy + uz * uz);
+            ux /= lu;
+            uy /= lu;
+            uz /= lu;
+            double d = wx * ux + wy * uy + wz * uz;
+            wx -= d * ux;
+            wy -= d * uy;
+            wz -= d * uz;
+            double lw = Math.sqrt(wx * wx + wy * wy + wz * wz);
+            double v = Math.sqrt(Body.G * sol * r * r / Math.pow(r * r + eps2, 1.5)) / lw;
+            store.add(new Body("b" + i, 4.2e24 * rng.nextDouble(), 5e6, new Vector3(ux * r, uy * r, uz * r),
+                    new Vector3(wx * v, wy * v, wz * v), Color.WHITE));
+        }
+        return store;
+    }
+
+    // One step of the simulation loop on the calling thread.
+    private static void step(Tree tree, BodyStore store) {
+        tree.clear();
+        tree.addAll(store);
+        tree.finishTree();
+        tree.calcForces();
+        store.move();
+    }
+
+    private static void allocation(int n) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        bean.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+        BodyStore store = randomBodies(n, 1);
+        Tree tree = new Tree();
+        tree.setTheta(theta);
+        for (int i = 0; i < 30; i++) {
+            step(tree, store);
+        }
+        int steps = 20;
+        long before = bean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < steps; i++) {
+            step(tree, store);
+        }
+        long bytes = bean.getThreadAllocatedBytes(thread) - before;
+        System.out.println(n + " bodies: " + bytes / steps + " bytes allocated per step");
+        if (bytes > 0) System.exit(1);
+    }
+
+    /**
+     @return best time of 'runs' runs of 'task' in milliseconds, after as many runs to warm up.
+     */
+    static double best(int runs, Runnable task) {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < 2 * runs; i++) {
+            long start = System.nanoTime();
+            task.run();
+            double ms = (System.nanoTime() - start) / 1e6;
+            if (i >= runs && ms < best) best = ms;
+        }
+        return best;
+    }
+
+    private static void walks(int n) {
+        BodyStore store = randomBodies(n, 1);
+        Tree tree = new Tree();
+        tree.setTheta(theta);
+        tree.addAll(store);
+        tree.finishTree();
+        System.out.println(n + " bodies, height " + tree.getHeight() + ", best of 5 in ms");
+        System.out.printf("aggregate   iterative %8.2f  recursive %8.2f%n",
+                best(5, tree::aggregate), best(5, () -> aggregateRecursive(tree)));
+        System.out.printf("forces      iterative %8.2f  recursive %8.2f%n",
+                best(5, tree::calcForces), best(5, () -> calcForcesRecursive(tree, store)));
+        System.out.printf("height      iterative %8.2f  recursive %8.2f%n",
+                best(5, tree::getHeight), best(5, () -> getHeightRecursive(tree)));
+    }
+
+    // The recursive walks the iterative ones of Tree replaced, as reference for the walk mode.
+
+    private static boolean isLeaf(NodePool nodes, int n) { return nodes.firstChild[n] == NodePool.NONE; }
+
+    // Masses and mass centers of all nodes, like Tree#aggregate() without quadrupoles.
+    static void aggregateRecursive(Tree tree) {
+        if (tree.getNodes().size() > 0) aggregateRecursive(tree, 0);
+    }
+
+    private static void aggregateRecursive(Tree tree, int n) {
+        NodePool nodes = tree.getNodes();
+        double m = 0, sx = 0, sy = 0, sz = 0;
+        if (isLeaf(nodes, n)) {
+            double[] px = tree.getPx(), py = tree.getPy(), pz = tree.getPz(), pm = tree.getPm();
+            for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+                m += pm[k];
+                sx += px[k] * pm[k];
+                sy += py[k] * pm[k];
+                sz += pz[k] * pm[k];
+            }
+        } else {
+            for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                aggregateRecursive(tree, i);
+                m += nodes.mass[i];
+                sx += nodes.mx[i] * nodes.mass[i];
+                sy += nodes.my[i] * nodes.mass[i];
+                sz += nodes.mz[i] * nodes.mass[i];
+            }
+        }
+        nodes.mass[n] = m;
+        if (m == 0) return;
+        nodes.mx[n] = sx / m;
+        nodes.my[n] = sy / m;
+        nodes.mz[n] = sz / m;
+    }
+
+    // Forces of all bodies with the monopoles and the geometric criterion, like Tree#calcForces() with the defaults.
+    static void calcForcesRecursive(Tree tree, BodyStore store) {
+        if (tree.getNodes().size() == 0) return;
+        double theta2 = tree.getTheta() * tree.getTheta();
+        double eps2 = Gravity.softening2();
+        for (int b = 0; b < store.size(); b++) {
+            store.clearForce(b);
+            forceEstimateRecursive(tree, store, 0, b, theta2, eps2);
+        }
+    }
+
+    private static void forceEstimateRecursive(Tree tree, BodyStore store, int n, int b, double theta2, double eps2) {
+        NodePool nodes = tree.getNodes();
+        double x = store.x[b], y = store.y[b], z = store.z[b], m = store.mass[b];
+        double fx = 0, fy = 0, fz = 0;
+        if (isLeaf(nodes, n)) {
+            int[] order = tree.getOrder();
+            double[] px = tree.getPx(), py = tree.getPy(), pz = tree.getPz(), pm = tree.getPm();
+            for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+                if (order[k] == b) continue;
+                double dx = px[k] - x;
+                double dy = py[k] - y;
+                double dz = pz[k] - z;
+                double f = Gravity.factor(dx * dx + dy * dy + dz * dz, m * pm[k], eps2);
+                fx += dx * f;
+                fy += dy * f;
+                fz += dz * f;
+            }
+        } else {
+            double dx = nodes.cx[n] - x;
+            double dy = nodes.cy[n] - y;
+            double dz = nodes.cz[n] - z;
+            double d = 2.0 * nodes.half[n];
+            if (d * d < theta2 * (dx * dx + dy * dy + dz * dz)) {
+                dx = nodes.mx[n] - x;
+                dy = nodes.my[n] - y;
+                dz = nodes.mz[n] - z;
+                double f = Gravity.factor(dx * dx + dy * dy + dz * dz, m * nodes.mass[n], eps2);
+                fx = dx * f;
+                fy = dy * f;
+                fz = dz * f;
+            } else {
+                for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                    forceEstimateRecursive(tree, store, i, b, theta2, eps2);
+                }
+                return;
+            }
+        }
+        store.fx[b] += fx;
+        store.fy[b] += fy;
+        store.fz[b] += fz;
+    }
+
+    static int getHeightRecursive(Tree tree) {
+        return tree.getNodes().size() == 0 ? 0 : getMaxHeight(tree.getNodes(), 0) + 1;
+    }
+
+    private static int getMaxHeight(NodePool nodes, int n) {
+        if (isLeaf(nodes, n)) return 0;
+        int maxHeight = 0;
+        for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+            maxHeight = Math.max(maxHeight, getMaxHeight(nodes, i) + 1);
+        }
+        return maxHeight;
+    }
+
+    /**
+     @return root mean square of the relative error of the forces in 'store' against the reference forces.
+     */
+    static double rmsError(BodyStore store, double[] refX, double[] refY, double[] refZ) {
+        double sum = 0;
+        for (int i = 0; i < store.size(); i++) {
+            double dx = store.fx[i] - refX[i];
+            double dy = store.fy[i] - refY[i];
+            double dz = store.fz[i] - refZ[i];
+            double ref = refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i];
+            if (ref > 0) sum += (dx * dx + dy * dy + dz * dz) / ref;
+        }
+        return Math.sqrt(sum / store.size());
+    }
+
+    /**
+     @return the p-th percentile (0 to 100) of the relative errors of the forces in 'store' against the reference.
+     Unlike the rms, it is not dominated by the few bodies whose net force nearly cancels, like Sol in the center.
+     */
+    static double percentileError(BodyStore store, double[] refX, double[] refY, double[] refZ, double p) {
+        double[] errors = new double[store.size()];
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            double dx = store.fx[i] - refX[i];
+            double dy = store.fy[i] - refY[i];
+            double dz = store.fz[i] - refZ[i];
+            double ref = refX[i] * refX[i] + refY[i] * refY[i] + refZ[i] * refZ[i];
+            if (ref > 0) errors[count++] = Math.sqrt((dx * dx + dy * dy + dz * dz) / ref);
+        }
+        if (count == 0) return 0;
+        Arrays.sort(errors, 0, count);
+        return errors[Math.min(count - 1, (int) (p / 100 * count))];
+    }
+
+    private static void quadrupoles(int n) {
+        BodyStore store = randomBodies(n, 1);
+        new DirectSolver().computeForces(store);
+        double[] refX = store.fx.clone(), refY = store.fy.clone(), refZ = store.fz.clone();
+        Tree tree = new Tree();
+        tree.addAll(store);
+        System.out.println(n + " bodies, relative error against the direct summation, best of 3 in ms");
+        System.out.println("theta   monopole: median     99%       ms   quadrupole: median     99%       ms");
+        for (double t = 0.3; t < 1.25; t += 0.15) {
+            tree.setTheta(t);
+            tree.setQuadrupole(false);
+            double mono = best(3, () -> { tree.finishTree(); tree.calcForces(); });
+            double monoMedian = percentileError(store, refX, refY, refZ, 50);
+            double mono99 = percentileError(store, refX, refY, refZ, 99);
+            tree.setQuadrupole(true);
+            double quad = best(3, () -> { tree.finishTree(); tree.calcForces(); });
+            System.out.printf("%.2f  %17.2e %9.2e %8.2f  %19.2e %9.2e %8.2f%n", t, monoMedian, mono99, mono,
+                    percentileError(store, refX, refY, refZ, 50), percentileError(store, refX, refY, refZ, 99), quad);
+        }
+    }
+
+    /**
+     The relative error criterion uses the forces of the last step, which are the direct forces here: the error it
+     reaches in a simulation is a bit larger.
+     */
+    private static void criteria(int n) {
+        BodyStore store = randomBodies(n, 1);
+        new DirectSolver().computeForces(store);
+        double[] refX = store.fx.clone(), refY = store.fy.clone(), refZ = store.fz.clone();
+        Tree tree = new Tree();
+        tree.addAll(store);
+        tree.finishTree();
+        System.out.println(n + " bodies, relative error against the direct summation, best of 3 in ms");
+        System.out.println("criterion                cells/body  bodies/body     median        99%        ms");
+        for (double t = 0.4; t < 1.05; t += 0.3) {
+            criterion(tree, store, new GeometricCriterion(), t, String.format("geometric theta %.1f", t),
+                    refX, refY, refZ);
+            criterion(tree, store, new BmaxCriterion(), t, String.format("bmax theta %.1f", t), refX, refY, refZ);
+        }
+        for (double alpha = 1e-7; alpha < 2e-4; alpha *= 10) {
+            criterion(tree, store, new RelativeErrorCriterion(alpha), 0, String.format("relative %.0e", alpha),
+                    refX, refY, refZ);
+        }
+    }
+
+    private static void criterion(Tree tree, BodyStore store, MultipoleAcceptanceCriterion criterion, double t,
+                                  String name, double[] refX, double[] refY, double[] refZ) {
+        tree.setCriterion(criterion);
+        tree.setTheta(t);
+        double ms = best(3, () -> {
+            // every run starts from the direct forces, the relative criterion would use its own result otherwise
+            System.arraycopy(refX, 0, store.fx, 0, refX.length);
+            System.arraycopy(refY, 0, store.fy, 0, refY.length);
+            System.arraycopy(refZ, 0, store.fz, 0, refZ.length);
+            tree.calcForces();
+        });
+        System.out.printf("%-22s %12.1f %12.1f %10.2e %10.2e %9.2f%n", name,
+                (double) tree.getCellInteractions() / store.size(), (double) tree.getBodyInteractions() / store.size(),
+                percentileError(store, refX, refY, refZ, 50), percentileError(store, refX, refY, refZ, 99), ms);
+    }
+
+    /**
+     Sol dominates the forces of the bodies of Simulation. Barnes-Hut evaluates it almost exactly, the multipole method
+     expands its force over every target leaf, so the first table shows Barnes-Hut more accurate at the same cost. The
+     crossover is therefore searched on clusters of equal masses, against the lowest order that is at least as
+     accurate as Barnes-Hut for the theta.
+     */
+    private static void fmm(int n) {
+        BodyStore store = randomBodies(n, 1);
+        new DirectSolver().computeForces(store);
+        double[] refX = store.fx.clone(), refY = store.fy.clone(), refZ = store.fz.clone();
+        System.out.println(n + " bodies, relative error against the direct summation, best of 3 in ms");
+        System.out.println("method                   median        99%        ms");
+        BarnesHutSolver barnesHut = new BarnesHutSolver(theta);
+        double ms = best(3, () -> barnesHut.computeForces(store));
+        System.out.printf("barnes-hut theta %.2f %10.2e %10.2e %9.2f%n", theta,
+                percentileError(store, refX, refY, refZ, 50), percentileError(store, refX, refY, refZ, 99), ms);
+        for (int order = 2; order <= 6; order++) {
+            FmmSolver fmm = new FmmSolver(order, 0.7);
+            ms = best(3, () -> fmm.computeForces(store));
+            System.out.printf("fmm order %d          %10.2e %10.2e %9.2f%n", order,
+                    percentileError(store, refX, refY, refZ, 50), percentileError(store, refX, refY, refZ, 99), ms);
+        }
+
+        BodyStore cluster = clusterBodies(n, 1);
+        new DirectSolver().computeForces(cluster);
+        refX = cluster.fx.clone();
+        refY = cluster.fy.clone();
+        refZ = cluster.fz.clone();
+        System.out.println("clusters of equal masses, fmm theta 0.7, errors of " + n + " bodies, best of 1 in ms");
+        for (double t : new double[]{1, 0.7, 0.5}) {
+            BarnesHutSolver tree = new BarnesHutSolver(t);
+            tree.computeForces(cluster);
+            double median = percentileError(cluster, refX, refY, refZ, 50);
+            double tail = percentileError(cluster, refX, refY, refZ, 99);
+            FmmSolver fmm = null;
+            for (int order = 2; order <= 8 && fmm == null; order++) {
+                FmmSolver candidate = new FmmSolver(order, 0.7);
+                candidate.computeForces(cluster);
+                if (percentileError(cluster, refX, refY, refZ, 50) <= median
+                        && percentileError(cluster, refX, refY, refZ, 99) <= tail) fmm = candidate;
+            }
+            System.out.printf("barnes-hut theta %.2f, median %.1e, 99%% %.1e: ", t, median, tail);
+            if (fmm == null) {
+                System.out.println("no order up to 8 is as accurate");
+                continue;
+            }
+            System.out.println("fmm order " + fmm.getOrder());
+            FmmSolver solver = fmm;
+            int crossover = -1;
+            for (int size = 5000; size <= 16 * n; size *= 2) {
+                BodyStore bodies = clusterBodies(size, 1);
+                double b = best(1, () -> tree.computeForces(bodies));
+                double f = best(1, () -> solver.computeForces(bodies));
+                System.out.printf("%8d bodies: barnes-hut %10.1f ms  fmm %10.1f ms%n", size, b, f);
+                if (crossover < 0 && f < b) crossover = size;
+            }
+            if (crossover < 0) {
+                System.out.println("The fast multipole method is not faster up to " + 16 * n + " bodies");
+            } else {
+                System.out.println("The fast multipole method is faster from about " + crossover + " bodies on");
+            }
+        }
+    }
+
+    // 64 targets against the n bodies as sources, like a group and its interaction list
+    private static void kernel(int n) {
+        BodyStore store = randomBodies(n, 1);
+        int targets = 64;
+        double eps2 = Gravity.softening2();
+        double[] fx = new double[targets], fy = new double[targets], fz = new double[targets];
+        double scalar = best(30, () -> {
+            for (int t = 0; t < targets; t++) {
+                double x = store.x[t], y = store.y[t], z = store.z[t], m = store.mass[t];
+                double sx = 0, sy = 0, sz = 0;
+                for (int j = 0; j < n; j++) {
+                    double dx = store.x[j] - x;
+                    double dy = store.y[j] - y;
+                    double dz = store.z[j] - z;
+                    double f = Gravity.factor(dx * dx + dy * dy + dz * dz, m * store.mass[j], eps2);
+                    sx += dx * f;
+                    sy += dy * f;
+                    sz += dz * f;
+                }
+                fx[t] = sx;
+                fy[t] = sy;
+                fz[t] = sz;
+            }
+        });
+        double[] refX = fx.clone(), refY = fy.clone(), refZ = fz.clone();
+        double single = best(30, () -> {
+            Arrays.fill(fx, 0);
+            Arrays.fill(fy, 0);
+            Arrays.fill(fz, 0);
+            for (int t = 0; t < targets; t++) {
+                InteractionKernel.accumulate(store.x[t], store.y[t], store.z[t], store.mass[t],
+                        store.x, store.y, store.z, store.mass, 0, n, eps2, fx, fy, fz, t);
+            }
+        });
+        double many = best(30, () -> {
+            Arrays.fill(fx, 0);
+            Arrays.fill(fy, 0);
+            Arrays.fill(fz, 0);
+            InteractionKernel.accumulate(store.x, store.y, store.z, store.mass, 0, targets,
+                    store.x, store.y, store.z, store.mass, 0, n, eps2, fx, fy, fz, 0);
+        });
+        double error = 0;
+        for (int t = 0; t < targets; t++) {
+            double dx = fx[t] - refX[t], dy = fy[t] - refY[t], dz = fz[t] - refZ[t];
+            error = Math.max(error, Math.sqrt((dx * dx + dy * dy + dz * dz)
+                    / (refX[t] * refX[t] + refY[t] * refY[t] + refZ[t] * refZ[t])));
+        }
+        double interactions = (double) targets * n;
+        System.out.printf("%d targets, %d sources, ns per interaction%n", targets, n);
+        System.out.printf("scalar loop %6.2f  kernel one target %6.2f  kernel %d targets %6.2f  max difference %.1e%n",
+                scalar * 1e6 / interactions, single * 1e6 / interactions, InteractionKernel.LANES,
+                many * 1e6 / interactions, error);
+    }
+
+    /**
+     The same simulated time with both integrators, leapfrog also with 2 and 4 times the step, so with a half and a
+     quarter of the force calculations. The error is the largest relative deviation of the total energy from the
+     start up to the step, n should be small, the energy is summed over all pairs.
+     */
+    private static void energy(int n) {
+        double dt = LeapfrogIntegrator.defaultTimeStep();
+        int steps = 4000;
+        Integrator[] integrators = {new EulerIntegrator(dt), new LeapfrogIntegrator(dt),
+                new LeapfrogIntegrator(2 * dt), new LeapfrogIntegrator(4 * dt)};
+        String[] names = {"euler dt", "leapfrog dt", "leapfrog 2 dt", "leapfrog 4 dt"};
+        System.out.printf("%d bodies, direct summation, dt %.0f s, %d steps of dt, largest relative energy error%n",
+                n, dt, steps);
+        System.out.println("integrator       forces   after 1/4     1/2     3/4     all      ms");
+        DirectSolver direct = new DirectSolver();
+        for (int k = 0; k < integrators.length; k++) {
+            BodyStore store = orbitingBodies(n, 1);
+            int count = (int) Math.round(steps * dt / integrators[k].getTimeStep());
+            double start = totalEnergy(store);
+            double worst = 0;
+            double[] quarters = new double[4];
+            long time = System.nanoTime();
+            for (int step = 1; step <= count; step++) {
+                integrators[k].step(store, direct);
+                if (step % 10 == 0 || step == count) {
+                    worst = Math.max(worst, Math.abs((totalEnergy(store) - start) / start));
+                }
+                if (step % (count / 4) == 0) quarters[step / (count / 4) - 1] = worst;
+            }
+            double ms = (System.nanoTime() - time) / 1e6;
+            System.out.printf("%-14s %8d %11.2e %7.2e %7.2e %7.2e %7.0f%n", names[k], count, quarters[0], quarters[1],
+                    quarters[2], quarters[3], ms);
+        }
+    }
+
+    /**
+     Most bodies orbit far from Sol, 2% close to it, where they need short steps. Both integrators use Barnes-Hut
+     at theta 0.5 and simulate the same time, the energy error is the relative deviation at the end.
+     */
+    private static void blockSteps(int n) {
+        int rungs = 6;
+        double dtMin = LeapfrogIntegrator.defaultTimeStep() / 4;
+        double dtMax = dtMin * (1 << rungs);
+        int fullSteps = 20;
+        BodyStore far = orbitingBodies(n - n / 50, 1, 1, 4);
+        BodyStore close = orbitingBodies(n / 50 + 1, 2, 0.08, 0.15);
+        System.out.printf("%d bodies, %d close to Sol, smallest step %.0f s, %d rungs, %d full steps of %.0f s%n",
+                n, n / 50, dtMin, rungs + 1, fullSteps, dtMax);
+        System.out.println("integrator           forces/body  energy error       ms");
+        for (int k = 0; k < 2; k++) {
+            BodyStore store = new BodyStore(n);
+            for (int i = 0; i < far.size(); i++) {
+                store.add(new Body(far.getName(i), far.mass[i], far.radius[i], new Vector3(far.x[i], far.y[i], far.z[i]),
+                        new Vector3(far.vx[i], far.vy[i], far.vz[i]), far.getColor(i)));
+            }
+            for (int i = 1; i < close.size(); i++) {
+                store.add(new Body(close.getName(i), close.mass[i], close.radius[i],
+                        new Vector3(close.x[i], close.y[i], close.z[i]),
+                        new Vector3(close.vx[i], close.vy[i], close.vz[i]), close.getColor(i)));
+            }
+            BarnesHutSolver solver = new BarnesHutSolver(0.5);
+            BlockTimestepIntegrator block = new BlockTimestepIntegrator(dtMax, rungs, 0.05, 0);
+            Integrator integrator = k == 0 ? new LeapfrogIntegrator(dtMin) : block;
+            int steps = k == 0 ? fullSteps << rungs : fullSteps;
+            double start = totalEnergy(store);
+            long time = System.nanoTime();
+            for (int step = 0; step < steps; step++) {
+                integrator.step(store, solver);
+            }
+            double ms = (System.nanoTime() - time) / 1e6;
+            double forces = k == 0 ? steps + 1 : block.getForceEvaluations() / (double) store.size();
+            System.out.printf("%-20s %12.1f %13.2e %8.0f%n", k == 0 ? "leapfrog smallest" : "block time steps",
+                    forces, Math.abs((totalEnergy(store) - start) / start), ms);
+            if (k == 1) System.out.println("steps per rung " + Arrays.toString(block.getRungCounts()));
+        }
+    }
+
+    private static void leafCapacities(int n) {
+        BodyStore store = randomBodies(n, 1);
+        System.out.println(n + " bodies, theta " + theta + ", best of 3 in ms");
+        System.out.println("capacity    nodes  height    build     walk     step");
+        Tree tree = new Tree();
+        tree.setTheta(theta);
+        tree.addAll(store);
+        for (int capacity = 1; capacity <= 64; capacity *= 2) {
+            tree.setLeafCapacity(capacity);
+            double build = best(3, tree::finishTree);
+            double walk = best(3, tree::calcForces);
+            System.out.printf("%8d %8d %7d %8.2f %8.2f %8.2f%n", capacity, tree.getNodes().size(), tree.getHeight(),
+                    build, walk, build + walk);
+        }
+        BarnesHutSolver solver = new BarnesHutSolver(theta);
+        LeafCapacityTuner tuner = new LeafCapacityTuner(solver, 1000);
+        for (int step = 0; tuner.isTuning() || step == 0; step++) {
+            tuner.computeForces(store);
+        }
+        System.out.println("tuner chooses capacity " + tuner.getCapacity());
+    }
+
+    private static void bounds(int n) {
+        System.out.println(n + " bodies in a cluster 1 AU off the origin, theta " + theta + ", best of 3 in ms");
+        System.out.println("  sigma AU  root AU  height    nodes    build     walk");
+        for (double sigma = 0.4; sigma > 1e-4; sigma /= 10) {
+            BodyStore store = randomBodies(n, 1);
+            for (int i = 0; i < store.size(); i++) {
+                double scale = sigma * Simulation.AU / (0.2 * Simulation.Window);
+                store.x[i] = store.x[i] * scale + Simulation.AU;
+                store.y[i] *= scale;
+                store.z[i] *= scale;
+            }
+            Tree tree = new Tree();
+            tree.setTheta(theta);
+            tree.addAll(store);
+            double build = best(3, tree::finishTree);
+            double walk = best(3, tree::calcForces);
+            System.out.printf("%9.4f %8.4f %7d %8d %8.2f %8.2f%n", sigma, tree.getRootHalf() / Simulation.AU,
+                    tree.getHeight(), tree.getNodes().size(), build, walk);
+        }
+
+        // every tenth body escapes, then the store is culled
+        BodyStore store = randomBodies(n, 1);
+        Tree tree = new Tree();
+        tree.addAll(store);
+        tree.finishTree();
+        double before = tree.getRootHalf();
+        Body[] views = new Body[store.size()];
+        for (int i = 0; i < views.length; i++) views[i] = store.getBody(i);
+        int escaped = 0;
+        for (int i = 1; i < store.size(); i += 10) {
+            store.x[i] = 100 * Simulation.Window;
+            escaped++;
+        }
+        tree.clear();
+        tree.addAll(store);
+        tree.finishTree();
+        double grown = tree.getRootHalf();
+        int culled = store.cull(10 * Simulation.Window);
+        int bad = 0;
+        for (int i = 0; i < views.length; i++) {
+            Body b = views[i];
+            boolean far = b.getStore() != store;
+            if (far != (i % 10 == 1) || (!far && store.getBody(b.getIndex()) != b)) bad++;
+        }
+        tree.clear();
+        tree.addAll(store);
+        tree.finishTree();
+        System.out.printf("root %.2f AU, with %d escaped bodies %.1f AU, %d culled, root %.2f AU, %d bodies left, "
+                        + "%d wrong views%n", before / Simulation.AU, escaped, grown / Simulation.AU, culled,
+                tree.getRootHalf() / Simulation.AU, store.size(), bad);
+        if (bad > 0 || culled != escaped) System.exit(1);
+    }
+
+    // A tenth of the bodies share one position, another tenth are pairs 1 mm apart, like bodies after a merge.
+    private static void depths(int n) {
+        BodyStore store = randomBodies(n, 1);
+        for (int i = 1; i < n / 10; i++) {
+            store.x[i] = 0.1 * Simulation.AU;
+            store.y[i] = 0;
+            store.z[i] = 0;
+        }
+        for (int i = n / 10; i + 1 < n / 5; i += 2) {
+            store.x[i + 1] = store.x[i] + 1e-3;
+            store.y[i + 1] = store.y[i];
+            store.z[i + 1] = store.z[i];
+        }
+        int[] sample = new int[64];
+        Random rng = new Random(2);
+        for (int i = 0; i < sample.length; i++) sample[i] = rng.nextInt(n);
+        double[] ex = new double[sample.length], ey = new double[sample.length], ez = new double[sample.length];
+        DirectSolver.sampleForces(store, sample, sample.length, ex, ey, ez);
+        System.out.println(n + " bodies, " + (n / 10) + " at one position, " + (n / 20) + " pairs 1 mm apart, theta "
+                + theta + ", best of 3 in ms");
+        System.out.println("depth    nodes  height  overflow    build     walk  rms error");
+        for (int depth = Morton.LEVELS; depth >= 6; depth -= 5) {
+            Tree tree = new Tree();
+            tree.setTheta(theta);
+            tree.setMaxDepth(depth);
+            tree.addAll(store);
+            double build = best(3, tree::finishTree);
+            double walk = best(3, tree::calcForces);
+            double sum = 0;
+            for (int i = 0; i < sample.length; i++) {
+                int b = sample[i];
+                double dx = store.fx[b] - ex[i], dy = store.fy[b] - ey[i], dz = store.fz[b] - ez[i];
+                double ref = ex[i] * ex[i] + ey[i] * ey[i] + ez[i] * ez[i];
+                if (ref > 0) sum += (dx * dx + dy * dy + dz * dz) / ref;
+            }
+            System.out.printf("%5d %8d %7d %9d %8.2f %8.2f %10.2e%n", depth, tree.getNodes().size(), tree.getHeight(),
+                    tree.getOverflowLeaves(), build, walk, Math.sqrt(sum / sample.length));
+        }
+    }
+
+    private static void aggregation(int n) {
+        BodyStore store = randomBodies(n, 1);
+        System.out.println(n + " bodies, best of 10 in ms");
+        System.out.println("quadrupole    serial  parallel  differences");
+        for (boolean quadrupole : new boolean[]{false, true}) {
+            Tree tree = new Tree();
+            tree.setQuadrupole(quadrupole);
+            tree.setParallelBuild(true);
+            tree.addAll(store);
+            tree.finishTree();
+            NodePool nodes = tree.getNodes();
+            double parallel = best(10, tree::aggregate);
+            double[] mass = Arrays.copyOf(nodes.mass, nodes.size());
+            double[] mx = Arrays.copyOf(nodes.mx, nodes.size());
+            double[] qxx = Arrays.copyOf(nodes.qxx, nodes.size());
+            tree.setParallelBuild(false);
+            double serial = best(10, tree::aggregate);
+            int differences = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                if (mass[i] != nodes.mass[i] || mx[i] != nodes.mx[i] || qxx[i] != nodes.qxx[i]) differences++;
+            }
+            System.out.printf("%10b %9.2f %9.2f %12d%n", quadrupole, serial, parallel, differences);
+        }
+    }
+
+    private static void vectors(int n) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        bean.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+        BodyStore store = randomBodies(Math.min(n, 2000), 1);
+        Body[] bodies = new Body[store.size()];
+        for (int i = 0; i < bodies.length; i++) bodies[i] = store.getBody(i);
+        double pairs = (double) bodies.length * bodies.length;
+        double[] check = new double[2];
+        Runnable immutable = () -> {
+            double sum = 0;
+            for (Body b : bodies) {
+                Vector3 force = new Vector3(0, 0, 0);
+                for (Body other : bodies) force = force.plus(b.gravitationalForce(other));
+                sum += force.length();
+            }
+            check[0] = sum;
+        };
+        Runnable inPlace = () -> {
+            double sum = 0;
+            Vector3 force = Vector3.scratch(0);
+            for (Body b : bodies) {
+                force.set(0, 0, 0);
+                for (Body other : bodies) b.addGravitationalForce(other, force);
+                sum += force.length();
+            }
+            check[1] = sum;
+        };
+        System.out.println(bodies.length + " bodies, direct summation over the Body views, best of 5");
+        for (int k = 0; k < 2; k++) {
+            Runnable run = k == 0 ? immutable : inPlace;
+            double ms = best(5, run);
+            long before = bean.getThreadAllocatedBytes(thread);
+            run.run();
+            long bytes = bean.getThreadAllocatedBytes(thread) - before;
+            System.out.printf("%-10s %6.2f ns per interaction, %6.2f bytes per interaction%n",
+                    k == 0 ? "immutable" : "in place", ms * 1e6 / pairs, bytes / pairs);
+        }
+        System.out.println("same sum: " + (check[0] == check[1]));
+    }
+
+    /**
+     The bodies orbit Sol with leapfrog for 200 steps. Every step the tree is updated in place and, on the same
+     positions, a second tree is rebuilt from scratch. The refitted tree keeps the root of its last build while a
+     rebuild sizes the root to the bodies, so their forces differ by about the error of the approximation: both are
+     compared against the direct summation after the last step.
+     */
+    private static void refit(int n) {
+        int steps = 200;
+        System.out.println(n + " bodies, " + steps + " steps, mean ms per step, 99% error against the direct summation");
+        System.out.println("dt s     update   rebuild   refits  rebuilds  nodes  update 99%  rebuild 99%");
+        for (double dt = 100; dt < 4000; dt *= Math.sqrt(10)) {
+            BodyStore store = orbitingBodies(n, 1);
+            Tree tree = new Tree();
+            tree.setTheta(0.5);
+            tree.addAll(store);
+            tree.finishTree();
+            Tree fresh = new Tree();
+            fresh.setTheta(0.5);
+            long[] times = new long[2];
+            LeapfrogIntegrator integrator = new LeapfrogIntegrator(dt);
+            for (int step = 0; step < steps; step++) {
+                integrator.step(store, s -> {
+                    long start = System.nanoTime();
+                    tree.update();
+                    long updated = System.nanoTime();
+                    fresh.clear();
+                    fresh.addAll(s);
+                    fresh.finishTree();
+                    times[0] += updated - start;
+                    times[1] += System.nanoTime() - updated;
+                    tree.calcForces();
+                });
+            }
+            double[] updateX = store.fx.clone(), updateY = store.fy.clone(), updateZ = store.fz.clone();
+            new DirectSolver().computeForces(store);
+            double[] refX = store.fx.clone(), refY = store.fy.clone(), refZ = store.fz.clone();
+            fresh.calcForces();
+            double rebuilt = percentileError(store, refX, refY, refZ, 99);
+            System.arraycopy(updateX, 0, store.fx, 0, n);
+            System.arraycopy(updateY, 0, store.fy, 0, n);
+            System.arraycopy(updateZ, 0, store.fz, 0, n);
+            System.out.printf("%5.0f %9.2f %9.2f %8d %9d %6d %11.1e %12.1e%n", dt, times[0] / 1e6 / (steps + 1),
+                    times[1] / 1e6 / (steps + 1), tree.getRefits(), tree.getRebuilds() - 1, tree.getNodes().size(),
+                    percentileError(store, refX, refY, refZ, 99), rebuilt);
+        }
+    }
+
+    // kinetic plus potential energy of all bodies, see Gravity#potential
+    private static double totalEnergy(BodyStore store) {
+        double eps2 = Gravity.softening2();
+        double energy = 0;
+        for (int i = 0; i < store.size(); i++) {
+            energy += 0.5 * store.mass[i] * (store.vx[i] * store.vx[i] + store.vy[i] * store.vy[i]
+                    + store.vz[i] * store.vz[i]);
+            for (int j = i + 1; j < store.size(); j++) {
+                double dx = store.x[j] - store.x[i], dy = store.y[j] - store.y[i], dz = store.z[j] - store.z[i];
+                energy += Gravity.potential(dx * dx + dy * dy + dz * dz, store.mass[i] * store.mass[j], eps2);
+            }
+        }
+        return energy;
+    }
+
+    // 40 steps each, sampling every 4th, the time is the mean step time with and without the sampler
+    private static void sampler(int n) {
+        BodyStore store = randomBodies(n, 1);
+        System.out.println(n + " bodies, 256 bodies every 4th step, percentiles of the relative error");
+        System.out.println("theta   median      90%      99%      max   samples  skipped  ms plain  ms sampled");
+        for (double t = 0.4; t < 1.05; t += 0.3) {
+            BarnesHutSolver solver = new BarnesHutSolver(t);
+            AccuracySampler sampler = new AccuracySampler(solver, 4, 256);
+            double plain = best(3, () -> solver.computeForces(store));
+            long start = System.nanoTime();
+            for (int step = 0; step < 40; step++) {
+                sampler.computeForces(store);
+            }
+            double sampled = (System.nanoTime() - start) / 1e6 / 40;
+            try {
+                sampler.awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            System.out.printf("%.1f  %8.1e %8.1e %8.1e %8.1e %9d %8d %9.2f %11.2f%n", t, sampler.getPercentile(50),
+                    sampler.getPercentile(90), sampler.getPercentile(99), sampler.getPercentile(100),
+                    sampler.getSamples(), sampler.getSkipped(), plain, sampled);
+        }
+    }
+
+    /**
+     The bodies are moved between the steps, as in the simulation. The budget is twice the time of a step at Theta 1.
+     */
+    private static void thetaControl(int n) {
+        BodyStore store = randomBodies(n, 1);
+        BarnesHutSolver solver = new BarnesHutSolver(1);
+        double full = best(3, () -> solver.computeForces(store));
+        ThetaController[] controllers = {ThetaController.forError(solver, 1e-6),
+                ThetaController.forTimeBudget(solver, 2 * full)};
+        String[] names = {"error target 1e-6", String.format("time budget %.1f ms", 2 * full)};
+        for (int c = 0; c < controllers.length; c++) {
+            solver.getTree().setTheta(1);
+            controllers[c].setSampleInterval(1);
+            System.out.println(n + " bodies, " + names[c]);
+            System.out.println("step   theta   estimated error   ms");
+            for (int step = 0; step < 30; step++) {
+                controllers[c].computeForces(store);
+                store.move();
+                if (step % 3 == 2) {
+                    System.out.printf("%4d  %6.3f  %16.2e  %6.2f%n", step + 1, controllers[c].getTheta(),
+                            controllers[c].getEstimatedError(), controllers[c].getStepTime());
+                }
+            }
+        }
+    }
+
+    /**
+     The difference between the single and the double precision walk is the error the float cells add, it has to be
+     small against the error of the approximation itself (the error against the direct summation).
+     */
+    private static void singlePrecision(int n) {
+        BodyStore store = randomBodies(n, 1);
+        new DirectSolver().computeForces(store);
+        double[] refX = store.fx.clone(), refY = store.fy.clone(), refZ = store.fz.clone();
+        Tree tree = new Tree();
+        tree.addAll(store);
+        tree.finishTree();
+        System.out.println(n + " bodies, relative error, best of 5 in ms");
+        System.out.println("theta group   double: vs direct 99%      ms   single: vs direct 99%      ms"
+                + "   single vs double: median       99%       max");
+        for (double t = 0.4; t < 1.05; t += 0.3) {
+            tree.setTheta(t);
+            for (int k = 16; k <= 64; k *= 4) {
+                tree.setGroupSize(k);
+                tree.setSinglePrecision(false);
+                double full = best(5, tree::calcForces);
+                double full99 = percentileError(store, refX, refY, refZ, 99);
+                double[] dx = store.fx.clone(), dy = store.fy.clone(), dz = store.fz.clone();
+                tree.setSinglePrecision(true);
+                double single = best(5, tree::calcForces);
+                System.out.printf("%.1f   %5d %21.2e %7.2f %18.2e %7.2f %26.2e %9.2e %9.2e%n", t, k, full99, full,
+                        percentileError(store, refX, refY, refZ, 99), single,
+                        percentileError(store, dx, dy, dz, 50), percentileError(store, dx, dy, dz, 99),
+                        percentileError(store, dx, dy, dz, 100));
+            }
+        }
+    }
+
+    private static void groups(int n) {
+        BodyStore store = randomBodies(n, 1);
+        Tree tree = new Tree();
+        tree.setTheta(theta);
+        tree.addAll(store);
+        tree.finishTree();
+        double single = best(3, tree::calcForces);
+        double[] refX = store.fx.clone(), refY = store.fy.clone(), refZ = store.fz.clone();
+        System.out.printf("%d bodies, theta %.2f, every body walks: %.2f ms%n", n, theta, single);
+        for (int k = 8; k <= 64; k *= 2) {
+            tree.setGroupSize(k);
+            double grouped = best(3, tree::calcForces);
+            System.out.printf("group size %2d: %8.2f ms, %.1fx faster, rms difference %.2e%n",
+                    k, grouped, single / grouped, rmsError(store, refX, refY, refZ));
+        }
+    }
+
+    private static void crossover() {
+        DirectSolver direct = new DirectSolver();
+        BarnesHutSolver barnesHut = new BarnesHutSolver(theta);
+        int crossover = -1;
+        for (int n = 8; n <= 16384; n *= 2) {
+            BodyStore store = randomBodies(n, 1);
+            int runs = Math.max(3, 20000 / n);
+            double d = best(runs, () -> direct.computeForces(store));
+            double t = best(runs, () -> barnesHut.computeForces(store));
+            System.out.printf("%6d bodies: direct %9.3f ms  barnes-hut %9.3f ms%n", n, d, t);
+            if (crossover < 0 && t < d) crossover = n;
+        }
+        System.out.println("Barnes-Hut is faster from about " + crossover + " bodies on");
+    }
+}
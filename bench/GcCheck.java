@@ -0,0 +1,106 @@
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ Runs the steps of Simulation (parallel build, a force pool, refits, leapfrog) under a JFR recording and reports the
+ garbage collections and the sampled allocations of the steady state, the exit code is 1 if there was a collection.
+ The sampled allocations are the event jdk.ObjectAllocationSample of JDK 16, so unlike the rest of bench it needs a
+ newer JVM than the project SDK, on an older one the check exits with 2 instead of reporting no allocations.
+ <p>javac -cp "out:lib/*" -d out bench/*.java</p>
+ <p>java -cp "out:lib/*" GcCheck [number of bodies] [theta]</p>
+ */
+public class GcCheck {
+
+    private static final String ALLOCATION = "jdk.ObjectAllocationSample";
+    private static final String COLLECTION = "jdk.GarbageCollection";
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        double theta = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        for (String name : new String[]{ALLOCATION, COLLECTION}) {
+            if (!hasEventType(name)) {
+                System.err.println("This JVM has no JFR event " + name + ", the check needs JDK 16 or newer");
+                System.exit(2);
+            }
+        }
+        BodyStore store = Benchmark.orbitingBodies(n, 1);
+        BarnesHutSolver solver = new BarnesHutSolver(theta);
+        solver.setIncremental(true);
+        Tree tree = solver.getTree();
+        tree.setParallelBuild(true);
+        tree.setGrainSize(1024);
+        tree.setThreads(4);
+        tree.setLeafCapacity(8);
+        Integrator integrator = new LeapfrogIntegrator(LeapfrogIntegrator.defaultTimeStep());
+        for (int i = 0; i < 50; i++) {
+            integrator.step(store, solver);
+        }
+        int steps = 200;
+        List<RecordedEvent> events;
+        // recorded to a file and parsed afterwards, so JFR does not allocate on the heap during the steps
+        try (Recording recording = new Recording()) {
+            recording.enable(COLLECTION);
+            recording.enable(ALLOCATION).with("throttle", "1000/s").withStackTrace();
+            recording.start();
+            for (int i = 0; i < steps; i++) {
+                integrator.step(store, solver);
+            }
+            recording.stop();
+            Path file = Files.createTempFile("gccheck", ".jfr");
+            recording.dump(file);
+            events = RecordingFile.readAllEvents(file);
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long bytes = 0, collections = 0;
+        Map<String, Long> sites = new HashMap<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(COLLECTION)) {
+                collections++;
+                continue;
+            }
+            // only the threads of the steps
+            String thread = event.getThread("eventThread").getJavaName();
+            if (!thread.equals("main") && !thread.startsWith("ForkJoinPool")) continue;
+            String site = event.getClass("objectClass").getName();
+            RecordedStackTrace stack = event.getStackTrace();
+            if (stack != null) {
+                for (RecordedFrame frame : stack.getFrames()) {
+                    String type = frame.getMethod().getType().getName();
+                    if (type.startsWith("java.") || type.startsWith("jdk.")) continue;
+                    site += " in " + type + "." + frame.getMethod().getName();
+                    break;
+                }
+            }
+            long weight = event.getLong("weight");
+            bytes += weight;
+            sites.merge(site, weight, Long::sum);
+        }
+        System.out.println(n + " bodies, " + steps + " steps: " + collections + " garbage collections, about "
+                + bytes / steps + " bytes allocated per step");
+        sites.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(8)
+                .forEach(site -> System.out.printf("%12d  %s%n", site.getValue() / steps, site.getKey()));
+        if (collections > 0) System.exit(1);
+    }
+
+    private static boolean hasEventType(String name) {
+        for (EventType type : FlightRecorder.getFlightRecorder().getEventTypes()) {
+            if (type.getName().equals(name)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ Continuous accuracy check of an approximating solver: every K-th step a random sample of bodies is taken, their
+ exact forces are calculated by direct summation and the relative errors of the forces the solver returned are
+ recorded in a histogram. The histogram gives the percentiles of the error over the whole run, the percentiles of
+ the last sample are kept as well.
+ <p>The step only copies the positions, the masses and the forces of the sample, the direct summation runs on a
+ background thread of the sampler while the simulation goes on. It does not use the common pool, where it would
+ compete with the parallel build of the tree for the workers. If the last sample is still being evaluated when the
+ next one is due, the new one is skipped. The copies are reused, only the task of a sample is allocated.</p>
+ */
+public class AccuracySampler implements ForceSolver {
+
+    // histogram of the relative errors: BINS_PER_DECADE bins per decade from 10^MIN_EXPONENT to 1, below and above
+    private static final int BINS_PER_DECADE = 10;
+    private static final int MIN_EXPONENT = -12;
+    private static final int BINS = -MIN_EXPONENT * BINS_PER_DECADE + 2;
+
+    private final ForceSolver solver;
+    private final ForkJoinPool background = new ForkJoinPool(1); // its thread is a daemon and ends when idle
+    private final int interval;
+    private final Random random = new Random(1);
+    private int steps;
+
+    // copies of the step that is evaluated
+    private double[] x = new double[0], y = new double[0], z = new double[0], mass = new double[0];
+    private int n;
+    private final int[] sample;
+    private final double[] tx, ty, tz; // forces of the solver on the sample
+    private final double[] fx, fy, fz; // exact forces on the sample
+    private final AtomicBoolean busy = new AtomicBoolean();
+
+    private final long[] histogram = new long[BINS];
+    private final double[] lastErrors;
+    private int lastCount;
+    private long samples, skipped;
+
+    /**
+     @param solver     solver whose forces are checked.
+     @param interval   a sample is taken every interval steps.
+     @param sampleSize number of bodies of a sample.
+     */
+    public AccuracySampler(ForceSolver solver, int interval, int sampleSize) {
+        this.solver = solver;
+        this.interval = Math.max(1, interval);
+        sample = new int[Math.max(1, sampleSize)];
+        tx = new double[sample.length];
+        ty = new double[sample.length];
+        tz = new double[sample.length];
+        fx = new double[sample.length];
+        fy = new double[sample.length];
+        fz = new double[sample.length];
+        lastErrors = new double[sample.length];
+    }
+
+    @Override
+    public void computeForces(BodyStore store) {
+        solver.computeForces(store);
+        if (steps++ % interval != 0 || store.size() < 2) return;
+        if (!busy.compareAndSet(false, true)) {
+            skipped++;
+            return;
+        }
+        copy(store);
+        background.execute(this::evaluate);
+    }
+
+    // Sub steps of block time steps are passed on without sampling, only full steps are checked.
+    @Override
+    public void computeForces(BodyStore store, int[] active, int count) {
+        solver.computeForces(store, active, count);
+    }
+
+    private void copy(BodyStore store) {
+        n = store.size();
+        if (x.length < n) {
+            x = new double[store.x.length];
+            y = new double[x.length];
+            z = new double[x.length];
+            mass = new double[x.length];
+        }
+        System.arraycopy(store.x, 0, x, 0, n);
+        System.arraycopy(store.y, 0, y, 0, n);
+        System.arraycopy(store.z, 0, z, 0, n);
+        System.arraycopy(store.mass, 0, mass, 0, n);
+        for (int i = 0; i < sample.length; i++) {
+            int b = random.nextInt(n);
+            sample[i] = b;
+            tx[i] = store.fx[b];
+            ty[i] = store.fy[b];
+            tz[i] = store.fz[b];
+        }
+    }
+
+    // Runs on the background thread: exact forces of the sample, then the errors into the histogram.
+    private void evaluate() {
+        try {
+            DirectSolver.sampleForces(x, y, z, mass, n, sample, 0, sample.length, fx, fy, fz);
+            synchronized (this) {
+                lastCount = 0;
+                for (int i = 0; i < sample.length; i++) {
+                    double ref = fx[i] * fx[i] + fy[i] * fy[i] + fz[i] * fz[i];
+                    if (ref == 0) continue;
+                    double dx = tx[i] - fx[i], dy = ty[i] - fy[i], dz = tz[i] - fz[i];
+                    double error = Math.sqrt((dx * dx + dy * dy + dz * dz) / ref);
+                    lastErrors[lastCount++] = error;
+                    histogram[bin(error)]++;
+                }
+                Arrays.sort(lastErrors, 0, lastCount);
+                samples++;
+                notifyAll();
+            }
+        } finally {
+            busy.set(false);
+        }
+    }
+
+    private static int bin(double error) {
+        if (error <= 0) return 0;
+        int bin = (int) Math.floor((Math.log10(error) - MIN_EXPONENT) * BINS_PER_DECADE) + 1;
+        return Math.max(0, Math.min(BINS - 1, bin));
+    }
+
+    /**
+     @return upper edge of histogram bin i: bin 0 holds the errors below 10^-12, the last bin the errors of 1 and more.
+     */
+    public static double binEdge(int i) {
+        return i >= BINS - 1 ? Double.POSITIVE_INFINITY : Math.pow(10, MIN_EXPONENT + (double) i / BINS_PER_DECADE);
+    }
+
+    /**
+     @return number of errors recorded in every bin of the histogram, see {@link #binEdge(int)}.
+     */
+    public synchronized long[] getHistogram() { return histogram.clone(); }
+
+    /**
+     @param p percentile from 0 to 100.
+     @return upper edge of the histogram bin holding the p-th percentile of all errors recorded so far, NaN if there
+     are none. The resolution is 10 bins per decade.
+     */
+    public synchronized double getPercentile(double p) {
+        long total = 0;
+        for (long count : histogram) total += count;
+        if (total == 0) return Double.NaN;
+        long rank = Math.min(total - 1, (long) (p / 100 * total));
+        for (int i = 0; i < BINS; i++) {
+            rank -= histogram[i];
+            if (rank < 0) return binEdge(i);
+        }
+        return binEdge(BINS - 1);
+    }
+
+    /**
+     @param p percentile from 0 to 100.
+     @return p-th percentile of the errors of the last evaluated sample, NaN if there is none.
+     */
+    public synchronized double getLastPercentile(double p) {
+        if (lastCount == 0) return Double.NaN;
+        return lastErrors[Math.min(lastCount - 1, (int) (p / 100 * lastCount))];
+    }
+
+    // number of evaluated samples
+    public synchronized long getSamples() { return samples; }
+
+    // number of samples skipped because the previous one was still being evaluated
+    public long getSkipped() { return skipped; }
+
+    /**
+     Waits until the sample being evaluated, if any, is recorded.
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (busy.get()) wait(10);
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(histogram, 0);
+        lastCount = 0;
+        samples = 0;
+        skipped = 0;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ Chooses the solver by the number of bodies: below the crossover the direct summation is faster than building and
+ walking a tree, from the crossover on Barnes-Hut is used.
+ */
+public class AutoSolver implements ForceSolver {
+
+    // Measured with 'java Benchmark crossover' at theta 1, single threaded: Barnes-Hut wins between 512 and 1024 bodies.
+    public static final int CROSSOVER = 768;
+
+    private final ForceSolver direct;
+    private final ForceSolver tree;
+    private final int crossover;
+
+    public AutoSolver(ForceSolver direct, ForceSolver tree) {
+        this(direct, tree, CROSSOVER);
+    }
+
+    public AutoSolver(ForceSolver direct, ForceSolver tree, int crossover) {
+        this.direct = direct;
+        this.tree = tree;
+        this.crossover = crossover;
+    }
+
+    @Override
+    public void computeForces(BodyStore store) {
+        if (store.size() < crossover) {
+            direct.computeForces(store);
+        } else {
+            tree.computeForces(store);
+        }
+    }
+
+    @Override
+    public void computeForces(BodyStore store, int[] active, int count) {
+        if (store.size() < crossover) {
+            direct.computeForces(store, active, count);
+        } else {
+            tree.computeForces(store, active, count);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ Barnes-Hut approximation: the tree is rebuilt from the store every step, then every body walks it, see
+ {@link Tree#calcForces()}. The tree can be configured through {@link #getTree()}.
+ */
+public class BarnesHutSolver implements ForceSolver {
+
+    private final Tree tree = new Tree();
+    private boolean incremental;
+
+    /**
+     @param theta threshold of the approximation, see {@link Tree#setTheta(double)}.
+     */
+    public BarnesHutSolver(double theta) {
+        tree.setTheta(theta);
+    }
+
+    public Tree getTree() { return tree; }
+
+    /**
+     @param incremental if true, a tree that already holds the bodies of the store is brought up to date by
+     {@link Tree#update()}, which refits it in place as long as the bodies move little, instead of rebuilding it.
+     */
+    public void setIncremental(boolean incremental) { this.incremental = incremental; }
+
+    @Override
+    public void computeForces(BodyStore store) {
+        if (incremental && tree.holds(store)) {
+            tree.update();
+        } else {
+            tree.clear();
+            tree.addAll(store);
+            tree.finishTree();
+        }
+        tree.calcForces();
+    }
+
+    /**
+     If all bodies are active or the tree does not hold the bodies of 'store', the tree is rebuilt. Otherwise it is
+     only refreshed with the new positions, see {@link Tree#refresh()}, or updated if the solver is incremental, and
+     only the active bodies walk it.
+     */
+    @Override
+    public void computeForces(BodyStore store, int[] active, int count) {
+        if (count == store.size() || !tree.holds(store)) {
+            computeForces(store);
+            return;
+        }
+        if (incremental) {
+            tree.update();
+        } else {
+            tree.refresh();
+        }
+        tree.calcForces(active, count);
+    }
+}
@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ Hierarchical block time steps: every body takes steps of dtMax / 2^rung, rung 0 to maxRung, so a few bodies close
+ to heavy masses can take tiny steps while the others take large ones. A step of the integrator is one full step of
+ dtMax, made of 2^maxRung sub steps of the smallest step. Each sub step drifts all bodies, but only calculates the
+ forces of the bodies whose own step ends there, with {@link ForceSolver#computeForces(BodyStore, int[], int)}.
+ <p>Every body is integrated by kick-drift-kick leapfrog with its own step: the opening half kick at the start of its
+ step, the closing half kick with the new force at its end. The rung is chosen after the closing kick from the
+ acceleration a of the body, the step should not be larger than eta * sqrt(eps / |a|), eps being the softening length
+ (or the length given to the constructor without softening). A body may only move to a larger step where that step
+ starts, so the rungs stay synchronized and all bodies meet at the end of every full step.</p>
+ <p>The forces of the end of a full step are the ones of the start of the next, like in {@link LeapfrogIntegrator}.
+ At the end of a full step all bodies are active, so the tree is rebuilt there and only refreshed in between.</p>
+ */
+public class BlockTimestepIntegrator implements Integrator {
+
+    private final double dtMax;
+    private final int maxRung;
+    private final double eta;
+    private final double length; // length scale of the step criterion without softening
+
+    private BodyStore primed;
+    private int primedSize;
+    private int[] active = new int[16];
+    private final long[] rungCounts;
+    private long forces; // number of force calculations of single bodies
+
+    /**
+     @param dtMax   length of a full step and of the steps on rung 0, in seconds.
+     @param maxRung smallest step is dtMax / 2^maxRung, at most 30.
+     @param eta     accuracy parameter of the step criterion, e.g. 0.02.
+     @param length  length scale of the criterion if there is no softening, in meters.
+     */
+    public BlockTimestepIntegrator(double dtMax, int maxRung, double eta, double length) {
+        this.dtMax = dtMax;
+        this.maxRung = Math.max(0, Math.min(30, maxRung));
+        this.eta = eta;
+        this.length = length;
+        rungCounts = new long[this.maxRung + 1];
+    }
+
+    @Override
+    public void step(BodyStore store, ForceSolver solver) {
+        int n = store.size();
+        if (active.length < n) active = new int[Math.max(n, 2 * active.length)];
+        if (primed != store || primedSize != n) {
+            solver.computeForces(store);
+            forces += n;
+            for (int i = 0; i < n; i++) {
+                store.rung[i] = rung(store, i, 0);
+            }
+            primed = store;
+            primedSize = n;
+        }
+        int substeps = 1 << maxRung;
+        double dtMin = dtMax / substeps;
+        for (int s = 0; s < substeps; s++) {
+            // opening half kicks of the bodies whose step starts now
+            int count = collect(store, s);
+            kickActive(store, count);
+            store.drift(dtMin);
+            // closing half kicks of the bodies whose step ends after this sub step
+            count = collect(store, s + 1);
+            solver.computeForces(store, active, count);
+            forces += count;
+            kickActive(store, count);
+            for (int k = 0; k < count; k++) {
+                int i = active[k];
+                rungCounts[store.rung[i]]++;
+                store.rung[i] = rung(store, i, s + 1);
+            }
+        }
+    }
+
+    // Collects the bodies whose step starts (or ends) at sub step s in 'active'.
+    private int collect(BodyStore store, int s) {
+        int count = 0;
+        for (int i = 0; i < store.size(); i++) {
+            if ((s & ((1 << (maxRung - store.rung[i])) - 1)) == 0) active[count++] = i;
+        }
+        return count;
+    }
+
+    // Half kick of every collected body with its own step.
+    private void kickActive(BodyStore store, int count) {
+        for (int k = 0; k < count; k++) {
+            int i = active[k];
+            double s = 0.5 * stepOf(store.rung[i]) / store.mass[i];
+            store.vx[i] += store.fx[i] * s;
+            store.vy[i] += store.fy[i] * s;
+            store.vz[i] += store.fz[i] * s;
+        }
+    }
+
+    private double stepOf(int rung) { return dtMax / (1 << rung); }
+
+    // Rung of body i for its next step, which starts at sub step s.
+    private int rung(BodyStore store, int i, int s) {
+        double f2 = store.fx[i] * store.fx[i] + store.fy[i] * store.fy[i] + store.fz[i] * store.fz[i];
+        double a = Math.sqrt(f2) / store.mass[i];
+        double eps2 = Gravity.softening2();
+        double l = eps2 > 0 ? Math.sqrt(eps2) : length;
+        int r = 0;
+        if (a > 0) {
+            double dt = eta * Math.sqrt(l / a);
+            while (r < maxRung && stepOf(r) > dt) r++;
+        }
+        // the step has to start at s: a larger step is only possible where it starts
+        while (r < maxRung && (s & ((1 << (maxRung - r)) - 1)) != 0) r++;
+        return r;
+    }
+
+    // Makes the next step calculate all forces and rungs first.
+    public void reset() { primed = null; }
+
+    @Override
+    public double getTimeStep() { return dtMax; }
+
+    /**
+     @return number of force calculations of single bodies so far. A global step of the smallest size would need
+     number of bodies * 2^maxRung per full step.
+     */
+    public long getForceEvaluations() { return forces; }
+
+    /**
+     @return number of steps taken on every rung so far.
+     */
+    public long[] getRungCounts() { return Arrays.copyOf(rungCounts, rungCounts.length); }
+}
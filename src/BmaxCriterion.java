@@ -0,0 +1,19 @@
+/**
+ Criterion of Salmon and Warren: a node is accepted if its mass center is further than bmax / theta away from the
+ body, bmax being the distance of the farthest corner of the node from the mass center. The offset of the mass
+ center from the geometric center is part of bmax, so lopsided nodes are opened earlier.
+ */
+public class BmaxCriterion implements MultipoleAcceptanceCriterion {
+
+    @Override
+    public boolean usesMassCenter() { return true; }
+
+    @Override
+    public double openingRadius2(double length, double bmax, double mass, double theta) {
+        if (theta <= 0) return Double.POSITIVE_INFINITY;
+        return bmax * bmax / (theta * theta);
+    }
+
+    @Override
+    public double targetScale(double fx, double fy, double fz, double mass) { return 1; }
+}
@@ -1,33 +1,38 @@
 import java.awt.*;
 
 // This class represents celestial bodies like stars, planets, asteroids, etc..
+// The state itself lives in a BodyStore, a Body is only a view on one row of that store.
 public class Body {
 
     public static final double G = 6.6743e-11;
 
     //private modifiers
-    private final String name;
-    private final double mass;
-    private final double radius;
-    private final Color color; // for drawing the body.
-    private Vector3 position; // position of the center.
-    private Vector3 currentMovement;
-    private Vector3 force;
-
-    // Constructor
+    private BodyStore store;
+    private int index;
+
+    // Constructor, the body gets its own store until it is added to another one.
     public Body(String name, double mass, double radius, Vector3 position, Vector3 currentMovement, Color color) {
-        this.name = name;
-        this.mass = mass;
-        this.radius = radius;
-        this.position = position;
-        this.currentMovement = currentMovement;
-        this.color = color;
-        force = new Vector3(0, 0, 0);
+        store = new BodyStore(1);
+        store.add(this, name, mass, radius, position.getX(), position.getY(), position.getZ(),
+                currentMovement.getX(), currentMovement.getY(), currentMovement.getZ(), color);
+    }
+
+    // Binds this view to row 'index' of 'store'.
+    void bind(BodyStore store, int index) {
+        this.store = store;
+        this.index = index;
     }
 
+    BodyStore getStore() { return store; }
+
+    int getIndex() { return index; }
+
     // Returns the distanceTo between this body and the specified 'body'.
     public double distanceTo(Body body) {
-        return position.distanceTo(body.position);
+        BodyStore s = body.store;
+        int j = body.index;
+        double d2 = Vector3.distanceSquared(store.x[index], store.y[index], store.z[index], s.x[j], s.y[j], s.z[j]);
+        return Math.sqrt(d2);
     }
 
     /**
@@ -39,13 +44,21 @@ public class Body {
      calculated force</p>
      */
     public Vector3 gravitationalForce(Body body) {
-        double phi = 0; // to reduce intense Force because Bodies are too close than should be in Reality
-        if (Simulation.mods) phi = 7e9;
-        Vector3 direction = body.position.minus(position);
-        double r = direction.length();
-        direction.normalize();
-        double force = (G * mass * body.mass) / (r * r + phi * phi);
-        return direction.times(force);
+        return addGravitationalForce(body, new Vector3(0, 0, 0));
+    }
+
+    /**
+     Adds the force of {@link #gravitationalForce(Body)} to 'sum' in place, so a sum over many bodies allocates nothing.
+     @return sum.
+     */
+    public Vector3 addGravitationalForce(Body body, Vector3 sum) {
+        BodyStore s = body.store;
+        int j = body.index;
+        double dx = s.x[j] - store.x[index];
+        double dy = s.y[j] - store.y[index];
+        double dz = s.z[j] - store.z[index];
+        double force = Gravity.factor(dx * dx + dy * dy + dz * dz, store.mass[index] * s.mass[j], Gravity.softening2());
+        return sum.addScaled(dx, dy, dz, force);
     }
 
     // Moves this body to a new position, according to the specified force vector 'force' exerted
@@ -53,38 +66,28 @@ public class Body {
     // (Movement depends on the mass of this body, its current movement and the exerted force)
     // Hint: see simulation loop in Simulation.java to find out how this is done
     public void move() {
-        double mod = 10.0;
-        if (Simulation.mods) mod = 3e3; // to speed up Movement, Movement in general stays the same, just faster
-        currentMovement = currentMovement.plus(force.times(mod / mass));
-        position = position.plus(currentMovement.times(mod));
+        store.move(index);
     }
 
     // Returns a string with the information about this body including
     // name, mass, radius, position and current movement. Example:
     // "Earth, 5.972E24 kg, radius: 6371000.0 m, position: [1.48E11,0.0,0.0] m, movement: [0.0,29290.0,0.0] m/s."
   /*  public String toString() {
-        return '"' + name + ", " + mass + " kg, radius: " + radius + " m, position: " + position.toString() +
-                " m, movement: " + currentMovement.toString() + " m/s." + '"';
+        return '"' + getName() + ", " + getMass() + " kg, radius: " + store.radius[index] + " m, position: " +
+                getMassCenter().toString() + " m, movement: " + getMovement().toString() + " m/s." + '"';
     }*/
 
     // Debugger to String, replace with above to use original toString
-    public String toString() { return name + " - POS: " + position.toString() + " - MOV: " + currentMovement; }
+    public String toString() { return getName() + " - POS: " + getMassCenter().toString() + " - MOV: " + getMovement(); }
 
     // Draws the body to the current StdDraw canvas as a dot using 'color' of this body.
     // The radius of the dot is in relation to the radius of the celestial body
     // (use a conversion based on the logarithm as in 'Simulation.java').
-    // Hint: use the method drawAsDot implemented in Vector3 for this
     public void draw() {
-        double r;
-        if (mass > 1.0e28) {
-            r = 2.5e9 * Math.log10(radius);
-        } else {
-            r = 9e8 * Math.log10(radius);
-        }
-        position.drawAsDot(r, color);
+        store.draw(index);
     }
 
-    public String getName() { return name; }
+    public String getName() { return store.getName(index); }
 
     /*
     Schreiben sie die Klasse Body so um, sodass sie die aktuelle Kraft, die auf den Himmelskörper wirkt, als Objektvariable speichert.
@@ -93,16 +96,39 @@ public class Body {
     die das Objekt gemäß der gespeicherten Kraft bewegt. Bauen Sie anschließend Simulation so um,
     sodass diese neuen Methoden genutzt werden, und kein Array von Kräften (Vector3[] forceOnBody) mehr benötigt wird.
      */
-    public void setForce(Vector3 force) { this.force = force; }
+    public void setForce(Vector3 force) {
+        store.fx[index] = force.getX();
+        store.fy[index] = force.getY();
+        store.fz[index] = force.getZ();
+    }
+
+    public Vector3 getForce() { return getForce(new Vector3(0, 0, 0)); }
+
+    // Sets 'force' to the current force of this body and returns it.
+    public Vector3 getForce(Vector3 force) { return force.set(store.fx[index], store.fy[index], store.fz[index]); }
 
     // returns if this Body is within the Boundaris of centerPlusHalf and centerMinudHalf
     public boolean within(Vector3 centerPlusHalf, Vector3 centerMinusHalf) {
-        return (position.isSmaller(centerPlusHalf) && centerMinusHalf.isSmaller(position));
+        double x = store.x[index], y = store.y[index], z = store.z[index];
+        return x <= centerPlusHalf.getX() && y <= centerPlusHalf.getY() && z <= centerPlusHalf.getZ()
+                && centerMinusHalf.getX() <= x && centerMinusHalf.getY() <= y && centerMinusHalf.getZ() <= z;
+    }
+
+    public double getMass() { return store.mass[index]; }
+
+    public Vector3 getMassCenter() { return getMassCenter(new Vector3(0, 0, 0)); }
+
+    // Sets 'position' to the position of this body and returns it.
+    public Vector3 getMassCenter(Vector3 position) {
+        return position.set(store.x[index], store.y[index], store.z[index]);
     }
 
-    public double getMass() { return mass; }
+    public Vector3 getMovement() { return getMovement(new Vector3(0, 0, 0)); }
 
-    public Vector3 getMassCenter() { return position; }
+    // Sets 'movement' to the current movement of this body and returns it.
+    public Vector3 getMovement(Vector3 movement) {
+        return movement.set(store.vx[index], store.vy[index], store.vz[index]);
+    }
 
-    public Color getColor() {return color; }
+    public Color getColor() {return store.getColor(index); }
 }
@@ -0,0 +1,243 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ Stores the state of all bodies as a structure of arrays. Every quantity has its own primitive column, indexed by the
+ id of the body, so that the tree, the force calculation and the simulation loop can work on plain double arrays
+ instead of chasing {@link Body} and {@link Vector3} objects.
+ <p>A {@link Body} is only a thin view on one row of a store.</p>
+ */
+public class BodyStore {
+
+    // columns, indexed by body id
+    double[] x, y, z; // position of the center
+    double[] vx, vy, vz; // current movement
+    double[] fx, fy, fz; // force currently exerted on the body
+    double[] mass;
+    double[] radius;
+    int[] rung; // block time step level, the body takes steps of dtMax / 2^rung, see BlockTimestepIntegrator
+    private String[] names;
+    private Color[] colors;
+    private Body[] views;
+    private int size;
+
+    public BodyStore(int capacity) {
+        if (capacity < 1) capacity = 1;
+        x = new double[capacity];
+        y = new double[capacity];
+        z = new double[capacity];
+        vx = new double[capacity];
+        vy = new double[capacity];
+        vz = new double[capacity];
+        fx = new double[capacity];
+        fy = new double[capacity];
+        fz = new double[capacity];
+        mass = new double[capacity];
+        radius = new double[capacity];
+        rung = new int[capacity];
+        names = new String[capacity];
+        colors = new Color[capacity];
+        views = new Body[capacity];
+    }
+
+    /**
+     @param bodies bodies to copy into the new store. Every body is bound to its row afterwards, so it
+     reflects all changes made through the store.
+     */
+    public BodyStore(Body[] bodies) {
+        this(bodies.length);
+        for (Body body : bodies) {
+            add(body);
+        }
+    }
+
+    /**
+     Copies the current state of 'body' into a new row of this store and binds the body to that row.
+     The store grows if it is full.
+     @return the id of the body within this store.
+     */
+    public int add(Body body) {
+        BodyStore s = body.getStore();
+        int j = body.getIndex();
+        int i = add(body, s.names[j], s.mass[j], s.radius[j], s.x[j], s.y[j], s.z[j], s.vx[j], s.vy[j], s.vz[j],
+                s.colors[j]);
+        fx[i] = s.fx[j];
+        fy[i] = s.fy[j];
+        fz[i] = s.fz[j];
+        return i;
+    }
+
+    int add(Body view, String name, double m, double r, double px, double py, double pz,
+            double mx, double my, double mz, Color color) {
+        if (size == mass.length) grow(2 * size);
+        int i = size++;
+        names[i] = name;
+        mass[i] = m;
+        radius[i] = r;
+        x[i] = px;
+        y[i] = py;
+        z[i] = pz;
+        vx[i] = mx;
+        vy[i] = my;
+        vz[i] = mz;
+        rung[i] = 0;
+        colors[i] = color;
+        views[i] = view;
+        view.bind(this, i);
+        return i;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        z = Arrays.copyOf(z, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        vz = Arrays.copyOf(vz, capacity);
+        fx = Arrays.copyOf(fx, capacity);
+        fy = Arrays.copyOf(fy, capacity);
+        fz = Arrays.copyOf(fz, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        rung = Arrays.copyOf(rung, capacity);
+        names = Arrays.copyOf(names, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        views = Arrays.copyOf(views, capacity);
+    }
+
+    /**
+     Removes body 'i' from the store. The last body of the store takes its place, so every other body keeps its id,
+     the last one gets id 'i'. The view of the removed body gets a store of its own with the state of the body, like
+     a body that was never added to a store.
+     */
+    public void remove(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("no body " + i + " in a store of " + size);
+        new BodyStore(1).add(views[i]);
+        int last = --size;
+        if (i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            z[i] = z[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            vz[i] = vz[last];
+            fx[i] = fx[last];
+            fy[i] = fy[last];
+            fz[i] = fz[last];
+            mass[i] = mass[last];
+            radius[i] = radius[last];
+            rung[i] = rung[last];
+            names[i] = names[last];
+            colors[i] = colors[last];
+            views[i] = views[last];
+            views[i].bind(this, i);
+        }
+        names[last] = null;
+        colors[last] = null;
+        views[last] = null;
+    }
+
+    /**
+     Removes every body that is farther than 'radius' from the origin, or has no finite position, see
+     {@link #remove(int)}. Escaped bodies would otherwise make the root of the tree ever larger.
+     @return number of removed bodies.
+     */
+    public int cull(double radius) {
+        double r2 = radius * radius;
+        int culled = 0;
+        // from the back, so the body moved into the place of a removed one was already checked
+        for (int i = size - 1; i >= 0; i--) {
+            if (!(x[i] * x[i] + y[i] * y[i] + z[i] * z[i] <= r2)) {
+                remove(i);
+                culled++;
+            }
+        }
+        return culled;
+    }
+
+    public int size() { return size; }
+
+    public Body getBody(int i) { return views[i]; }
+
+    public String getName(int i) { return names[i]; }
+
+    public Color getColor(int i) { return colors[i]; }
+
+    /**
+     Adds the gravitational force exerted by a point mass 'm' at (px, py, pz) on body 'i' to the force of 'i'.
+     <p>See {@link Gravity#factor(double, double, double)}, a point mass at the position of 'i' exerts no force.</p>
+     */
+    void addForce(int i, double px, double py, double pz, double m) {
+        double dx = px - x[i];
+        double dy = py - y[i];
+        double dz = pz - z[i];
+        double f = Gravity.factor(dx * dx + dy * dy + dz * dz, mass[i] * m, Gravity.softening2());
+        fx[i] += dx * f;
+        fy[i] += dy * f;
+        fz[i] += dz * f;
+    }
+
+    void clearForce(int i) {
+        fx[i] = 0;
+        fy[i] = 0;
+        fz[i] = 0;
+    }
+
+    // Draws every body of this store.
+    public void draw() {
+        for (int i = 0; i < size; i++) {
+            draw(i);
+        }
+    }
+
+    // Moves body 'i' according to its stored force and updates its current movement, see Body#move().
+    void move(int i) {
+        double mod = 10.0;
+        if (Simulation.mods) mod = 3e3; // to speed up Movement, Movement in general stays the same, just faster
+        double s = mod / mass[i];
+        vx[i] += fx[i] * s;
+        vy[i] += fy[i] * s;
+        vz[i] += fz[i] * s;
+        x[i] += vx[i] * mod;
+        y[i] += vy[i] * mod;
+        z[i] += vz[i] * mod;
+    }
+
+    // Moves all bodies of this store.
+    public void move() {
+        for (int i = 0; i < size; i++) {
+            move(i);
+        }
+    }
+
+    // Adds the acceleration of the stored force times dt to the movement of every body.
+    void kick(double dt) {
+        for (int i = 0; i < size; i++) {
+            double s = dt / mass[i];
+            vx[i] += fx[i] * s;
+            vy[i] += fy[i] * s;
+            vz[i] += fz[i] * s;
+        }
+    }
+
+    // Moves every body along its current movement for dt.
+    void drift(double dt) {
+        for (int i = 0; i < size; i++) {
+            x[i] += vx[i] * dt;
+            y[i] += vy[i] * dt;
+            z[i] += vz[i] * dt;
+        }
+    }
+
+    // Draws body 'i' as a dot, see Body#draw().
+    void draw(int i) {
+        double r;
+        if (mass[i] > 1.0e28) {
+            r = 2.5e9 * Math.log10(radius[i]);
+        } else {
+            r = 9e8 * Math.log10(radius[i]);
+        }
+        StdDraw.setPenColor(colors[i]);
+        StdDraw.filledCircle(x[i], y[i], r);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ Exact O(N²) direct summation of all pairs. Every pair is evaluated once and the force is added to one body and
+ subtracted from the other (Newton's third law). The pairs are processed in blocks of BLOCK x BLOCK bodies, so the
+ columns of both blocks stay in the cache while their pairs are evaluated.
+ */
+public class DirectSolver implements ForceSolver {
+
+    private static final int BLOCK = 256;
+
+    @Override
+    public void computeForces(BodyStore store) {
+        int n = store.size();
+        for (int i = 0; i < n; i++) {
+            store.clearForce(i);
+        }
+        double eps2 = Gravity.softening2();
+        for (int ib = 0; ib < n; ib += BLOCK) {
+            int ie = Math.min(ib + BLOCK, n);
+            for (int jb = ib; jb < n; jb += BLOCK) {
+                block(store, ib, ie, jb, Math.min(jb + BLOCK, n), eps2);
+            }
+        }
+    }
+
+    // Evaluates the pairs of bodies i0, ..., i1 - 1 with bodies j0, ..., j1 - 1, only j > i if the blocks overlap.
+    private static void block(BodyStore store, int i0, int i1, int j0, int j1, double eps2) {
+        double[] x = store.x, y = store.y, z = store.z, mass = store.mass;
+        double[] fx = store.fx, fy = store.fy, fz = store.fz;
+        for (int i = i0; i < i1; i++) {
+            double xi = x[i], yi = y[i], zi = z[i], mi = mass[i];
+            double fxi = 0, fyi = 0, fzi = 0;
+            for (int j = Math.max(j0, i + 1); j < j1; j++) {
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double dz = z[j] - zi;
+                double f = Gravity.factor(dx * dx + dy * dy + dz * dz, mi * mass[j], eps2);
+                dx *= f;
+                dy *= f;
+                dz *= f;
+                fxi += dx;
+                fyi += dy;
+                fzi += dz;
+                fx[j] -= dx;
+                fy[j] -= dy;
+                fz[j] -= dz;
+            }
+            fx[i] += fxi;
+            fy[i] += fyi;
+            fz[i] += fzi;
+        }
+    }
+
+    /**
+     Exact forces on a sample of bodies, without touching the force columns of the store: the force of all other
+     bodies on body sample[i] is stored in (fx[i], fy[i], fz[i]) for i = 0, ..., count - 1.
+     */
+    static void sampleForces(BodyStore store, int[] sample, int count, double[] fx, double[] fy, double[] fz) {
+        sampleForces(store.x, store.y, store.z, store.mass, store.size(), sample, 0, count, fx, fy, fz);
+    }
+
+    // sampleForces on the columns of n bodies, for the samples lo, ..., hi - 1.
+    static void sampleForces(double[] x, double[] y, double[] z, double[] mass, int n, int[] sample, int lo, int hi,
+                             double[] fx, double[] fy, double[] fz) {
+        double eps2 = Gravity.softening2();
+        for (int i = lo; i < hi; i++) {
+            int b = sample[i];
+            fx[i] = 0;
+            fy[i] = 0;
+            fz[i] = 0;
+            InteractionKernel.accumulate(x[b], y[b], z[b], mass[b], x, y, z, mass, 0, n, eps2, fx, fy, fz, i);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ Semi-implicit Euler, the integration of {@link Body#move()}: the forces of the current positions change the
+ movement by a full step, then the bodies move with the new movement. One force calculation per step, but the
+ energy error grows with the time step, so it needs short steps to stay stable.
+ */
+public class EulerIntegrator implements Integrator {
+
+    private final double dt;
+
+    /**
+     @param dt length of a step in seconds.
+     */
+    public EulerIntegrator(double dt) {
+        this.dt = dt;
+    }
+
+    @Override
+    public void step(BodyStore store, ForceSolver solver) {
+        solver.computeForces(store);
+        store.kick(dt);
+        store.drift(dt);
+    }
+
+    @Override
+    public double getTimeStep() { return dt; }
+}
@@ -0,0 +1,521 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ Fast multipole method on the octree of a {@link Tree}, for numbers of bodies where even Barnes-Hut is too slow.
+ <p>The potential of every cell is expanded in Cartesian Taylor series of the softened 1/r up to the order p, around
+ the mass center of the cell. The multipole moments M_k = sum(m * s^k), s being the position of a body relative to
+ the mass center, are computed for the leaves from their bodies (P2M) and shifted up to the parents (M2M). A dual tree
+ traversal pairs the cells: if a source cell is well separated from a target cell ((r_a + r_b) < theta * distance,
+ r being the distance of the farthest body of a cell from its mass center), its moments are translated into a local expansion L_n of the target (M2L), close
+ leaves interact body by body (P2P). The local expansions are shifted down to the leaves (L2L), the gradient of the
+ expansion of a leaf is the force on its bodies (L2P).</p>
+ <p>The kernel is the potential g of {@link Gravity#factor(double, double, double)}, g' = -1 / (r² + eps²), so the far
+ forces are softened like the ones of P2P. As g is a function of |u|², its derivatives a_k(u) = (1/k!) D^k g(|x - y|),
+ u = x - y, derived for y, follow from the derivatives of g for |u|² / 2 with a recurrence, see multipoleToLocal.
+ Without softening they are the ones of 1/r.</p>
+ <p>The tree is the one of Barnes-Hut, leaves of up to leafSize bodies are formed by not descending further. The
+ traversal is split into subtrees of targets, which are processed in parallel on the common pool. Bodies outside
+ of the root walk the tree like in Barnes-Hut.</p>
+ */
+public class FmmSolver implements ForceSolver {
+
+    private final Tree tree = new Tree();
+    private final int p; // order of the expansions
+    private final double theta2;
+    private int leafSize = 64;
+    private double eps2; // squared softening of the current step, see Gravity#softening2()
+    private boolean parallel = true;
+
+    // multi-indices k with |k| <= p, ordered by |k|
+    private final int terms;
+    private final int[] degree;
+    private final int[] exponent; // k_i at 3 * index + i
+    // index of k - e_i and k - 2e_i at 3 * index + i. If they do not exist, the index is 'terms', where the scratch
+    // arrays hold a 0, so the loops need no branches.
+    private final int[] lower1, lower2;
+    private final double[] inverseExponent; // 1 / k_i of the recurrence, i being powerDim
+    private final int[] powerDim; // a dimension i with k_i > 0, s^k = s^(k - e_i) * s_i
+    // pairs j <= k of M2M and L2L: index of k, j and k - j, binomial coefficient (k over j)
+    private final int[] shiftK, shiftJ, shiftD;
+    private final double[] shiftC;
+    // pairs of M2L with |k| + |n| <= p, grouped by n from m2lStart[n] on: index of k and k + n, binomial
+    // coefficient (k + n over n)
+    private final int[] m2lStart, m2lK, m2lS;
+    private final double[] m2lC;
+
+    // cells of the expansions: non-empty nodes not below a leaf, in pre-order
+    private int[] slot = new int[16]; // index of the cell of a node
+    private int[] cells = new int[16]; // node of a cell
+    private int[] extent = new int[16]; // number of cells of the subtree of a cell, which follow it in pre-order
+    private double[] radius = new double[16]; // distance of the farthest body of a cell from its mass center
+    private int cellCount;
+    private double[] multipole = new double[16], local = new double[16];
+    private int[] targets = new int[16]; // roots of the subtrees processed by one task
+    private int targetCount;
+    private int[] targetOf = new int[16]; // index of the target a cell is the root of, -1 for other cells
+    // pairs of the traversal that reached a target: (target, source) as found, then the sources sorted by target
+    private int[] deferred = new int[32], sources = new int[16], sourceStart = new int[17];
+    private int deferredCount;
+    private final int[] stack = new int[8 * (Morton.LEVELS + 1)];
+    private double[] fx = new double[16], fy = new double[16], fz = new double[16]; // forces in tree order
+
+    private final ThreadLocal<Scratch> scratch;
+
+    private static final class Scratch {
+        final double[] a, b, power; // a and b hold the derivatives of two consecutive orders of the kernel
+        final double[] g;
+        int[] pairs = new int[32 * (Morton.LEVELS + 1)]; // stack of the traversal, grows if needed
+
+        Scratch(int terms, int order) {
+            g = new double[order + 1];
+            a = new double[terms + 1];
+            b = new double[terms + 1];
+            power = new double[terms + 1];
+        }
+    }
+
+    /**
+     @param order order p of the expansions, at least 1. The error of the far forces drops by a factor of about theta
+     with every order.
+     @param theta two cells are well separated if the sum of their radii is below theta times their distance.
+     */
+    public FmmSolver(int order, double theta) {
+        if (order < 1) throw new IllegalArgumentException("order has to be at least 1");
+        p = order;
+        theta2 = theta * theta;
+        int side = p + 1;
+        int[] index = new int[side * side * side];
+        Arrays.fill(index, -1);
+        terms = (p + 1) * (p + 2) * (p + 3) / 6;
+        int[] kx = new int[terms], ky = new int[terms], kz = new int[terms];
+        degree = new int[terms];
+        int t = 0;
+        for (int d = 0; d <= p; d++) {
+            for (int x = d; x >= 0; x--) {
+                for (int y = d - x; y >= 0; y--) {
+                    kx[t] = x;
+                    ky[t] = y;
+                    kz[t] = d - x - y;
+                    degree[t] = d;
+                    index[(x * side + y) * side + d - x - y] = t++;
+                }
+            }
+        }
+        exponent = new int[3 * terms];
+        lower1 = new int[3 * terms];
+        lower2 = new int[3 * terms];
+        inverseExponent = new double[terms];
+        powerDim = new int[terms];
+        int shifts = 0, translations = 0;
+        for (int i = 0; i < terms; i++) {
+            int[] k = {kx[i], ky[i], kz[i]};
+            for (int dim = 0; dim < 3; dim++) {
+                exponent[3 * i + dim] = k[dim];
+                lower1[3 * i + dim] = k[dim] >= 1 ? index[lowered(k, dim, 1, side)] : terms;
+                lower2[3 * i + dim] = k[dim] >= 2 ? index[lowered(k, dim, 2, side)] : terms;
+                if (k[dim] > 0) powerDim[i] = dim;
+            }
+            if (i > 0) inverseExponent[i] = 1.0 / k[powerDim[i]];
+            for (int j = 0; j < terms; j++) {
+                if (kx[j] <= kx[i] && ky[j] <= ky[i] && kz[j] <= kz[i]) shifts++;
+                if (degree[i] + degree[j] <= p) translations++;
+            }
+        }
+        shiftK = new int[shifts];
+        shiftJ = new int[shifts];
+        shiftD = new int[shifts];
+        shiftC = new double[shifts];
+        m2lStart = new int[terms + 1];
+        m2lK = new int[translations];
+        m2lS = new int[translations];
+        m2lC = new double[translations];
+        shifts = 0;
+        translations = 0;
+        for (int i = 0; i < terms; i++) {
+            for (int j = 0; j < terms; j++) {
+                if (kx[j] <= kx[i] && ky[j] <= ky[i] && kz[j] <= kz[i]) {
+                    shiftK[shifts] = i;
+                    shiftJ[shifts] = j;
+                    shiftD[shifts] = index[((kx[i] - kx[j]) * side + ky[i] - ky[j]) * side + kz[i] - kz[j]];
+                    shiftC[shifts++] = binomial(kx[i], kx[j]) * binomial(ky[i], ky[j]) * binomial(kz[i], kz[j]);
+                }
+                if (degree[i] + degree[j] <= p) {
+                    // i is n, j is k
+                    m2lK[translations] = j;
+                    m2lS[translations] = index[((kx[i] + kx[j]) * side + ky[i] + ky[j]) * side + kz[i] + kz[j]];
+                    double c = binomial(kx[i] + kx[j], kx[i]) * binomial(ky[i] + ky[j], ky[i])
+                            * binomial(kz[i] + kz[j], kz[i]);
+                    m2lC[translations++] = c;
+                }
+            }
+            m2lStart[i + 1] = translations;
+        }
+        scratch = ThreadLocal.withInitial(() -> new Scratch(terms, p));
+    }
+
+    private static int lowered(int[] k, int dim, int by, int side) {
+        int x = k[0] - (dim == 0 ? by : 0), y = k[1] - (dim == 1 ? by : 0), z = k[2] - (dim == 2 ? by : 0);
+        return (x * side + y) * side + z;
+    }
+
+    private static double binomial(int n, int k) {
+        double c = 1;
+        for (int i = 1; i <= k; i++) {
+            c = c * (n - k + i) / i;
+        }
+        return c;
+    }
+
+    public Tree getTree() { return tree; }
+
+    public int getOrder() { return p; }
+
+    /**
+     @param leafSize nodes with at most this many bodies are leaves of the expansions, their bodies interact directly
+     with the bodies of close leaves.
+     */
+    public void setLeafSize(int leafSize) { this.leafSize = Math.max(1, leafSize); }
+
+    /**
+     @param parallel if true, the subtrees of targets are processed in parallel on the ForkJoin common pool.
+     */
+    public void setParallel(boolean parallel) { this.parallel = parallel; }
+
+    @Override
+    public void computeForces(BodyStore store) {
+        eps2 = Gravity.softening2();
+        tree.clear();
+        tree.addAll(store);
+        tree.finishTree();
+        int n = tree.getTreeCount();
+        if (n > 0) {
+            upward();
+            boolean split = parallel && ForkJoinPool.getCommonPoolParallelism() > 1;
+            findTargets(split ? Math.max(leafSize, n / 256) : Integer.MAX_VALUE);
+            Arrays.fill(local, 0, cellCount * terms, 0);
+            if (fx.length < n) {
+                fx = new double[n];
+                fy = new double[n];
+                fz = new double[n];
+            }
+            Arrays.fill(fx, 0, n, 0);
+            Arrays.fill(fy, 0, n, 0);
+            Arrays.fill(fz, 0, n, 0);
+            traverseTop();
+            if (split && targetCount > 1) {
+                Parallel.forRange(0, targetCount, 1, this::downward);
+            } else {
+                downward(0, targetCount);
+            }
+            int[] order = tree.getOrder();
+            for (int k = 0; k < n; k++) {
+                store.fx[order[k]] = fx[k];
+                store.fy[order[k]] = fy[k];
+                store.fz[order[k]] = fz[k];
+            }
+        }
+        tree.calcOutsideForces();
+    }
+
+    private boolean isLeaf(NodePool nodes, int n) {
+        return nodes.firstChild[n] == NodePool.NONE || nodes.count[n] <= leafSize;
+    }
+
+    // Numbers the cells in pre-order, then computes their moments from the last to the first (P2M and M2M).
+    private void upward() {
+        NodePool nodes = tree.getNodes();
+        if (slot.length < nodes.size()) slot = new int[Math.max(nodes.size(), 2 * slot.length)];
+        cellCount = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int n = stack[--top];
+            if (nodes.count[n] == 0) continue;
+            if (cellCount == cells.length) {
+                cells = Arrays.copyOf(cells, 2 * cellCount);
+                extent = new int[cells.length];
+                radius = new double[cells.length];
+                targetOf = new int[cells.length];
+            }
+            slot[n] = cellCount;
+            cells[cellCount++] = n;
+            if (!isLeaf(nodes, n)) {
+                for (int first = nodes.firstChild[n], i = first + 7; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
+        if (multipole.length < cellCount * terms) {
+            multipole = new double[2 * cellCount * terms];
+            local = new double[multipole.length];
+        }
+        double[] power = scratch.get().power;
+        for (int c = cellCount - 1; c >= 0; c--) {
+            int n = cells[c];
+            int base = c * terms;
+            Arrays.fill(multipole, base, base + terms, 0);
+            extent[c] = 1;
+            if (isLeaf(nodes, n)) {
+                radius[c] = particleToMultipole(nodes, n, base, power);
+                continue;
+            }
+            // no body is farther away than the farthest corner
+            double bx = nodes.half[n] + Math.abs(nodes.mx[n] - nodes.cx[n]);
+            double by = nodes.half[n] + Math.abs(nodes.my[n] - nodes.cy[n]);
+            double bz = nodes.half[n] + Math.abs(nodes.mz[n] - nodes.cz[n]);
+            double bmax = Math.sqrt(bx * bx + by * by + bz * bz);
+            radius[c] = 0;
+            for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                if (nodes.count[i] == 0) continue;
+                int child = slot[i];
+                double tx = nodes.mx[i] - nodes.mx[n], ty = nodes.my[i] - nodes.my[n], tz = nodes.mz[i] - nodes.mz[n];
+                radius[c] = Math.max(radius[c], Math.sqrt(tx * tx + ty * ty + tz * tz) + radius[child]);
+                powers(tx, ty, tz, power);
+                int from = child * terms;
+                for (int s = 0; s < shiftK.length; s++) {
+                    multipole[base + shiftK[s]] += shiftC[s] * power[shiftD[s]] * multipole[from + shiftJ[s]];
+                }
+                extent[c] += extent[child];
+            }
+            radius[c] = Math.min(radius[c], bmax);
+        }
+    }
+
+    // Returns the distance of the farthest body of leaf n from its mass center.
+    private double particleToMultipole(NodePool nodes, int n, int base, double[] power) {
+        double[] px = tree.getPx(), py = tree.getPy(), pz = tree.getPz(), pm = tree.getPm();
+        double r2 = 0;
+        for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+            double sx = px[k] - nodes.mx[n], sy = py[k] - nodes.my[n], sz = pz[k] - nodes.mz[n];
+            r2 = Math.max(r2, sx * sx + sy * sy + sz * sz);
+            powers(sx, sy, sz, power);
+            for (int i = 0; i < terms; i++) {
+                multipole[base + i] += pm[k] * power[i];
+            }
+        }
+        return Math.sqrt(r2);
+    }
+
+    // Stores s^k for all multi-indices k.
+    private void powers(double sx, double sy, double sz, double[] power) {
+        power[0] = 1;
+        for (int i = 1; i < terms; i++) {
+            int dim = powerDim[i];
+            power[i] = power[lower1[3 * i + dim]] * (dim == 0 ? sx : dim == 1 ? sy : sz);
+        }
+    }
+
+    // Splits the tree into subtrees of at most 'size' bodies, whose targets are processed by one task.
+    private void findTargets(int size) {
+        NodePool nodes = tree.getNodes();
+        targetCount = 0;
+        Arrays.fill(targetOf, 0, cellCount, -1);
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int n = stack[--top];
+            if (nodes.count[n] == 0) continue;
+            if (nodes.count[n] <= size || isLeaf(nodes, n)) {
+                if (targetCount == targets.length) targets = Arrays.copyOf(targets, 2 * targetCount);
+                targetOf[slot[n]] = targetCount;
+                targets[targetCount++] = n;
+            } else {
+                for (int first = nodes.firstChild[n], i = first + 7; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     Serial part of the traversal, from the root down to the targets: the pairs that reach a target are sorted by
+     target and continued by its task, so interactions above the targets are still translated only once. The local
+     expansions of the cells above the targets are shifted down to the targets.
+     */
+    private void traverseTop() {
+        NodePool nodes = tree.getNodes();
+        Scratch s = scratch.get();
+        deferredCount = 0;
+        s.pairs[0] = 0;
+        s.pairs[1] = 0;
+        traverse(nodes, s, 2, true);
+        if (sourceStart.length < targetCount + 1) sourceStart = new int[2 * targetCount + 1];
+        if (sources.length < deferredCount) sources = new int[2 * deferredCount];
+        Arrays.fill(sourceStart, 0, targetCount + 1, 0);
+        for (int i = 0; i < deferredCount; i++) {
+            sourceStart[deferred[2 * i] + 1]++;
+        }
+        for (int t = 0; t < targetCount; t++) {
+            sourceStart[t + 1] += sourceStart[t];
+        }
+        for (int i = 0; i < deferredCount; i++) {
+            sources[sourceStart[deferred[2 * i]]++] = deferred[2 * i + 1];
+        }
+        // sourceStart[t] is the end of the sources of t now
+        for (int t = targetCount; t > 0; t--) {
+            sourceStart[t] = sourceStart[t - 1];
+        }
+        sourceStart[0] = 0;
+        for (int c = 0; c < cellCount; c++) {
+            if (targetOf[c] >= 0) {
+                c += extent[c] - 1;
+            } else {
+                localToChildren(nodes, cells[c], c * terms, s.power);
+            }
+        }
+    }
+
+    // Processes the subtrees of the targets lo, ..., hi - 1: traversal, then L2L and L2P in pre-order.
+    private void downward(int lo, int hi) {
+        NodePool nodes = tree.getNodes();
+        Scratch s = scratch.get();
+        double[] pm = tree.getPm();
+        for (int t = lo; t < hi; t++) {
+            int root = targets[t];
+            int count = sourceStart[t + 1] - sourceStart[t];
+            if (s.pairs.length < 2 * count + 16) s.pairs = new int[2 * (2 * count + 16)];
+            int top = 0;
+            for (int i = sourceStart[t + 1] - 1; i >= sourceStart[t]; i--) {
+                s.pairs[top++] = root;
+                s.pairs[top++] = sources[i];
+            }
+            traverse(nodes, s, top, false);
+            for (int c = slot[root], end = c + extent[c]; c < end; c++) {
+                int n = cells[c];
+                if (isLeaf(nodes, n)) {
+                    localToParticles(nodes, n, c * terms, s.power, pm);
+                } else {
+                    localToChildren(nodes, n, c * terms, s.power);
+                }
+            }
+        }
+    }
+
+    // Shifts the local expansion of node n at 'base' to its children (L2L).
+    private void localToChildren(NodePool nodes, int n, int base, double[] power) {
+        for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+            if (nodes.count[i] == 0) continue;
+            int to = slot[i] * terms;
+            powers(nodes.mx[i] - nodes.mx[n], nodes.my[i] - nodes.my[n], nodes.mz[i] - nodes.mz[n], power);
+            for (int k = 0; k < shiftK.length; k++) {
+                local[to + shiftJ[k]] += shiftC[k] * power[shiftD[k]] * local[base + shiftK[k]];
+            }
+        }
+    }
+
+    /**
+     Dual tree traversal of the pairs (target, source) on the stack of 's', 'top' being the number of entries. The
+     larger cell of a pair that is neither well separated nor a pair of leaves is split.
+     @param defer if true, pairs whose target cell is the root of a target are stored for its task instead.
+     */
+    private void traverse(NodePool nodes, Scratch s, int top, boolean defer) {
+        while (top > 0) {
+            if (top + 16 > s.pairs.length) s.pairs = Arrays.copyOf(s.pairs, 2 * s.pairs.length);
+            int[] pairs = s.pairs;
+            int b = pairs[--top];
+            int a = pairs[--top];
+            if (defer && targetOf[slot[a]] >= 0) {
+                if (2 * deferredCount + 2 > deferred.length) deferred = Arrays.copyOf(deferred, 2 * deferred.length);
+                deferred[2 * deferredCount] = targetOf[slot[a]];
+                deferred[2 * deferredCount + 1] = b;
+                deferredCount++;
+                continue;
+            }
+            double dx = nodes.mx[a] - nodes.mx[b];
+            double dy = nodes.my[a] - nodes.my[b];
+            double dz = nodes.mz[a] - nodes.mz[b];
+            double ra = radius[slot[a]], rb = radius[slot[b]];
+            double r = ra + rb;
+            if (r * r < theta2 * (dx * dx + dy * dy + dz * dz)) {
+                multipoleToLocal(slot[b] * terms, slot[a] * terms, dx, dy, dz, s);
+                continue;
+            }
+            boolean leafA = isLeaf(nodes, a), leafB = isLeaf(nodes, b);
+            if (leafA && leafB) {
+                particleToParticle(nodes, a, b);
+            } else if (leafB || (!leafA && ra >= rb)) {
+                for (int i = nodes.firstChild[a], e = i + 8; i < e; i++) {
+                    if (nodes.count[i] == 0) continue;
+                    pairs[top++] = i;
+                    pairs[top++] = b;
+                }
+            } else {
+                for (int i = nodes.firstChild[b], e = i + 8; i < e; i++) {
+                    if (nodes.count[i] == 0) continue;
+                    pairs[top++] = a;
+                    pairs[top++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     Adds the local expansion of the moments at 'from' around a center at (ux, uy, uz) from them to 'to'. The kernel
+     is g(ρ), ρ = |u|² / 2, whose derivatives g_m for ρ are computed first, then a_k = a_k^0 from
+     k_i a_k^m = a_(k - 2e_i)^(m + 1) - u_i * a_(k - e_i)^(m + 1) for any i with k_i > 0, where
+     a_k^m = (1/k!) D^k g_m derived for y needs the orders up to m = p - |k|.
+     */
+    private void multipoleToLocal(int from, int to, double ux, double uy, double uz, Scratch s) {
+        double r2 = ux * ux + uy * uy + uz * uz;
+        double soft = r2 + eps2;
+        double inverse = 1 / (r2 * soft);
+        double[] g = s.g;
+        g[0] = 0; // the potential only enters local[0], which exerts no force
+        g[1] = -1 / (Math.sqrt(r2) * soft);
+        // g_1 = -1 / (r * (r² + eps²)) solves 2ρ (2ρ + eps²) g_1' + (6ρ + eps²) g_1 = 0, derived m - 1 times
+        for (int m = 1; m < p; m++) {
+            int k = m - 1;
+            g[m + 1] = -((k * (4 * r2 + 2 * eps2) + 3 * r2 + eps2) * g[m] + k * (4 * k + 2) * g[m - 1]) * inverse;
+        }
+        // the order m is in s.a if m is even, else in s.b, so a_k^0 ends in s.a
+        double[] a = p % 2 == 0 ? s.a : s.b;
+        a[0] = g[p];
+        for (int m = p - 1; m >= 0; m--) {
+            double[] upper = a;
+            a = m % 2 == 0 ? s.a : s.b;
+            a[0] = g[m];
+            for (int i = 1, e = (p - m + 1) * (p - m + 2) * (p - m + 3) / 6; i < e; i++) {
+                int dim = powerDim[i], l = 3 * i + dim;
+                double u = dim == 0 ? ux : dim == 1 ? uy : uz;
+                a[i] = (upper[lower2[l]] - u * upper[lower1[l]]) * inverseExponent[i];
+            }
+        }
+        for (int n = 0; n < terms; n++) {
+            double sum = 0;
+            for (int i = m2lStart[n], e = m2lStart[n + 1]; i < e; i++) {
+                sum += m2lC[i] * multipole[from + m2lK[i]] * a[m2lS[i]];
+            }
+            // (-1)^|n|
+            local[to + n] += (degree[n] & 1) == 0 ? sum : -sum;
+        }
+    }
+
+    // Adds the force of the local expansion of leaf n to its bodies: G * m * gradient.
+    private void localToParticles(NodePool nodes, int n, int base, double[] power, double[] pm) {
+        double[] px = tree.getPx(), py = tree.getPy(), pz = tree.getPz();
+        for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+            powers(px[k] - nodes.mx[n], py[k] - nodes.my[n], pz[k] - nodes.mz[n], power);
+            // the derivative of w^n for w_i is n_i * w^(n - e_i)
+            double gx = 0, gy = 0, gz = 0;
+            for (int i = 1, j = 3; i < terms; i++, j += 3) {
+                double l = local[base + i];
+                gx += l * exponent[j] * power[lower1[j]];
+                gy += l * exponent[j + 1] * power[lower1[j + 1]];
+                gz += l * exponent[j + 2] * power[lower1[j + 2]];
+            }
+            double g = Body.G * pm[k];
+            fx[k] += g * gx;
+            fy[k] += g * gy;
+            fz[k] += g * gz;
+        }
+    }
+
+    // Adds the softened forces of the bodies of leaf b to the bodies of leaf a.
+    private void particleToParticle(NodePool nodes, int a, int b) {
+        double[] px = tree.getPx(), py = tree.getPy(), pz = tree.getPz(), pm = tree.getPm();
+        int lo = nodes.start[a], hi = lo + nodes.count[a];
+        InteractionKernel.accumulate(px, py, pz, pm, lo, hi, px, py, pz, pm, nodes.start[b],
+                nodes.start[b] + nodes.count[b], eps2, fx, fy, fz, lo);
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ Calculates the gravitational forces the bodies of a store exert on each other. The simulation calls a solver once
+ per step for the whole store.
+ */
+public interface ForceSolver {
+
+    /**
+     Stores the force exerted on every body of 'store' by all other bodies in the force columns of the store.
+     */
+    void computeForces(BodyStore store);
+
+    /**
+     Stores the force exerted by all bodies of 'store' on the bodies active[0], ..., active[count - 1] in the force
+     columns of the store, for integrators that move only some of the bodies per step. The forces of the other
+     bodies may be changed as well: the default calculates all forces.
+     */
+    default void computeForces(BodyStore store, int[] active, int count) {
+        computeForces(store);
+    }
+}
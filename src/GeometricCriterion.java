@@ -0,0 +1,19 @@
+/**
+ The criterion of the original tree: a node of edge length l is accepted if its geometric center is further than
+ l / theta away from the body. Cheap, but a node whose mass lies at the side facing the body is accepted just as
+ early as a balanced one.
+ */
+public class GeometricCriterion implements MultipoleAcceptanceCriterion {
+
+    @Override
+    public boolean usesMassCenter() { return false; }
+
+    @Override
+    public double openingRadius2(double length, double bmax, double mass, double theta) {
+        if (theta <= 0) return Double.POSITIVE_INFINITY;
+        return length * length / (theta * theta);
+    }
+
+    @Override
+    public double targetScale(double fx, double fy, double fz, double mass) { return 1; }
+}
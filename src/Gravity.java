@@ -0,0 +1,59 @@
+/**
+ The gravitational interaction of two point masses on primitive coordinates, shared by all force calculations.
+ Nothing is allocated, callers multiply the distance vector with the returned factor and accumulate the result
+ in local variables or in the force columns of a {@link BodyStore}.
+ */
+final class Gravity {
+
+    private Gravity() {}
+
+    // Squared softening length, to reduce intense Force because Bodies are closer than they should be in Reality.
+    static double softening2() {
+        double phi = 0;
+        if (Simulation.mods) phi = 7e9;
+        return phi * phi;
+    }
+
+    /**
+     @param r2   squared distance between the two masses
+     @param mm   product of the two masses
+     @param eps2 squared softening length, see {@link #softening2()}
+     @return factor f, so that f * (dx, dy, dz) is the force exerted on the first mass, with (dx, dy, dz) pointing
+     from the first to the second mass. The force is G*(m1*m2)/(r*r + eps*eps) along the normalized direction,
+     masses at the same position exert no force.
+     */
+    static double factor(double r2, double mm, double eps2) {
+        if (r2 == 0) return 0;
+        return (Body.G * mm) / (r2 + eps2) / Math.sqrt(r2);
+    }
+
+    /**
+     Adds the force of a traceless quadrupole moment Q = (xx, xy, xz, yy, yz, zz) on a mass m at distance
+     d = (dx, dy, dz) from the mass center of Q, r2 = |d|² > 0, to fx[i], fy[i], fz[i]. The force is
+     G * m * (2.5 * (d * Q * d) / r^7 * d - Q * d / r^5), unsoftened, as a quadrupole is only used for far nodes.
+     */
+    static void addQuadrupoleForce(double dx, double dy, double dz, double r2, double m, double xx, double xy,
+                                   double xz, double yy, double yz, double zz, double[] fx, double[] fy, double[] fz,
+                                   int i) {
+        double qx = xx * dx + xy * dy + xz * dz;
+        double qy = xy * dx + yy * dy + yz * dz;
+        double qz = xz * dx + yz * dy + zz * dz;
+        double gm = Body.G * m / (r2 * r2 * Math.sqrt(r2));
+        double g = 2.5 * (dx * qx + dy * qy + dz * qz) / r2;
+        fx[i] += gm * (g * dx - qx);
+        fy[i] += gm * (g * dy - qy);
+        fz[i] += gm * (g * dz - qz);
+    }
+
+    /**
+     @return potential energy of two masses at squared distance r2, consistent with {@link #factor}: the integral of
+     the softened force G*mm/(r*r + eps*eps) from r to infinity, -G*mm/eps * (pi/2 - atan(r/eps)), or -G*mm/r
+     without softening.
+     */
+    static double potential(double r2, double mm, double eps2) {
+        double r = Math.sqrt(r2);
+        if (eps2 == 0) return r == 0 ? 0 : -Body.G * mm / r;
+        double eps = Math.sqrt(eps2);
+        return -Body.G * mm / eps * (Math.PI / 2 - Math.atan(r / eps));
+    }
+}
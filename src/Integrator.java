@@ -0,0 +1,14 @@
+/**
+ Advances the bodies of a store in time. The simulation calls an integrator once per step, the integrator calls the
+ force solver.
+ */
+public interface Integrator {
+
+    /**
+     Moves the bodies of 'store' by one time step, with the forces calculated by 'solver'.
+     */
+    void step(BodyStore store, ForceSolver solver);
+
+    // length of a step in seconds
+    double getTimeStep();
+}
@@ -0,0 +1,223 @@
+/**
+ Batched gravity kernel: the force of a list of sources on one or more targets, all given as primitive columns.
+ The interaction is the one of {@link Gravity#factor(double, double, double)}, a source at the position of the target
+ exerts no force, so a target may be part of the sources.
+ <p>The sqrt and the divisions of an interaction take far longer than the rest, so the loops are unrolled to 4
+ independent lanes: 4 interactions are in flight at once instead of waiting for each other through the sums. With
+ one target the lanes are 4 sources, with several targets they are 4 targets sharing each loaded source. The
+ remaining sources or targets are handled by the plain scalar loop. The factor itself is computed with a single
+ division, it differs from Gravity.factor only in the rounding.</p>
+ <p>The project targets Java 8 (see .idea/misc.xml), so the Vector API, an incubator module of JDK 16, is not
+ available and the lanes are plain scalar code that the JIT keeps in flight.</p>
+ */
+final class InteractionKernel {
+
+    static final int LANES = 4;
+    // sources summed up in float before the sum is added to the double total, see the single precision version
+    private static final int BLOCK = 32;
+
+    private InteractionKernel() {}
+
+    // Gravity.factor with one division instead of two.
+    private static double factor(double r2, double mm, double eps2) {
+        return r2 == 0 ? 0 : (Body.G * mm) / ((r2 + eps2) * Math.sqrt(r2));
+    }
+
+    /**
+     Adds the force of the sources lo, ..., hi - 1 on the target at (x, y, z) with mass m to (fx[t], fy[t], fz[t]).
+     */
+    static void accumulate(double x, double y, double z, double m,
+                           double[] sx, double[] sy, double[] sz, double[] sm, int lo, int hi, double eps2,
+                           double[] fx, double[] fy, double[] fz, int t) {
+        double ax0 = 0, ay0 = 0, az0 = 0, ax1 = 0, ay1 = 0, az1 = 0;
+        double ax2 = 0, ay2 = 0, az2 = 0, ax3 = 0, ay3 = 0, az3 = 0;
+        int j = lo;
+        for (int e = hi - LANES + 1; j < e; j += LANES) {
+            double dx0 = sx[j] - x, dy0 = sy[j] - y, dz0 = sz[j] - z;
+            double dx1 = sx[j + 1] - x, dy1 = sy[j + 1] - y, dz1 = sz[j + 1] - z;
+            double dx2 = sx[j + 2] - x, dy2 = sy[j + 2] - y, dz2 = sz[j + 2] - z;
+            double dx3 = sx[j + 3] - x, dy3 = sy[j + 3] - y, dz3 = sz[j + 3] - z;
+            double f0 = factor(dx0 * dx0 + dy0 * dy0 + dz0 * dz0, m * sm[j], eps2);
+            double f1 = factor(dx1 * dx1 + dy1 * dy1 + dz1 * dz1, m * sm[j + 1], eps2);
+            double f2 = factor(dx2 * dx2 + dy2 * dy2 + dz2 * dz2, m * sm[j + 2], eps2);
+            double f3 = factor(dx3 * dx3 + dy3 * dy3 + dz3 * dz3, m * sm[j + 3], eps2);
+            ax0 += dx0 * f0;
+            ay0 += dy0 * f0;
+            az0 += dz0 * f0;
+            ax1 += dx1 * f1;
+            ay1 += dy1 * f1;
+            az1 += dz1 * f1;
+            ax2 += dx2 * f2;
+            ay2 += dy2 * f2;
+            az2 += dz2 * f2;
+            ax3 += dx3 * f3;
+            ay3 += dy3 * f3;
+            az3 += dz3 * f3;
+        }
+        for (; j < hi; j++) {
+            double dx = sx[j] - x, dy = sy[j] - y, dz = sz[j] - z;
+            double f = factor(dx * dx + dy * dy + dz * dz, m * sm[j], eps2);
+            ax0 += dx * f;
+            ay0 += dy * f;
+            az0 += dz * f;
+        }
+        fx[t] += (ax0 + ax1) + (ax2 + ax3);
+        fy[t] += (ay0 + ay1) + (ay2 + ay3);
+        fz[t] += (az0 + az1) + (az2 + az3);
+    }
+
+    /**
+     Adds the force of the sources lo, ..., hi - 1 on each of the targets tlo, ..., thi - 1 (positions tx, ty, tz
+     and masses tm) to (fx[i], fy[i], fz[i]), i = first + t - tlo for the target t.
+     */
+    static void accumulate(double[] tx, double[] ty, double[] tz, double[] tm, int tlo, int thi,
+                           double[] sx, double[] sy, double[] sz, double[] sm, int lo, int hi, double eps2,
+                           double[] fx, double[] fy, double[] fz, int first) {
+        int t = tlo;
+        int i = first;
+        for (int e = thi - LANES + 1; t < e; t += LANES, i += LANES) {
+            double x0 = tx[t], y0 = ty[t], z0 = tz[t], m0 = tm[t];
+            double x1 = tx[t + 1], y1 = ty[t + 1], z1 = tz[t + 1], m1 = tm[t + 1];
+            double x2 = tx[t + 2], y2 = ty[t + 2], z2 = tz[t + 2], m2 = tm[t + 2];
+            double x3 = tx[t + 3], y3 = ty[t + 3], z3 = tz[t + 3], m3 = tm[t + 3];
+            double ax0 = 0, ay0 = 0, az0 = 0, ax1 = 0, ay1 = 0, az1 = 0;
+            double ax2 = 0, ay2 = 0, az2 = 0, ax3 = 0, ay3 = 0, az3 = 0;
+            for (int j = lo; j < hi; j++) {
+                double x = sx[j], y = sy[j], z = sz[j], m = sm[j];
+                double dx0 = x - x0, dy0 = y - y0, dz0 = z - z0;
+                double dx1 = x - x1, dy1 = y - y1, dz1 = z - z1;
+                double dx2 = x - x2, dy2 = y - y2, dz2 = z - z2;
+                double dx3 = x - x3, dy3 = y - y3, dz3 = z - z3;
+                double f0 = factor(dx0 * dx0 + dy0 * dy0 + dz0 * dz0, m0 * m, eps2);
+                double f1 = factor(dx1 * dx1 + dy1 * dy1 + dz1 * dz1, m1 * m, eps2);
+                double f2 = factor(dx2 * dx2 + dy2 * dy2 + dz2 * dz2, m2 * m, eps2);
+                double f3 = factor(dx3 * dx3 + dy3 * dy3 + dz3 * dz3, m3 * m, eps2);
+                ax0 += dx0 * f0;
+                ay0 += dy0 * f0;
+                az0 += dz0 * f0;
+                ax1 += dx1 * f1;
+                ay1 += dy1 * f1;
+                az1 += dz1 * f1;
+                ax2 += dx2 * f2;
+                ay2 += dy2 * f2;
+                az2 += dz2 * f2;
+                ax3 += dx3 * f3;
+                ay3 += dy3 * f3;
+                az3 += dz3 * f3;
+            }
+            fx[i] += ax0;
+            fy[i] += ay0;
+            fz[i] += az0;
+            fx[i + 1] += ax1;
+            fy[i + 1] += ay1;
+            fz[i + 1] += az1;
+            fx[i + 2] += ax2;
+            fy[i + 2] += ay2;
+            fz[i + 2] += az2;
+            fx[i + 3] += ax3;
+            fy[i + 3] += ay3;
+            fz[i + 3] += az3;
+        }
+        for (; t < thi; t++, i++) {
+            accumulate(tx[t], ty[t], tz[t], tm[t], sx, sy, sz, sm, lo, hi, eps2, fx, fy, fz, i);
+        }
+    }
+
+    /**
+     Single precision version for the far field: adds unit * sum(sm[j] * d / ((r² + eps2) * r)) over the sources
+     lo, ..., hi - 1 to (fx[i], fy[i], fz[i]), i = first + t - tlo for each target t, d and r measured from the target
+     to the source. The terms are calculated in float and summed up in float over blocks of 32 sources, the blocks
+     in double, so the rounding does not add up over long lists. The caller scales the coordinates and masses so that 'unit' carries G and the units
+     and they stay well inside the range of float.
+     */
+    static void accumulate(float[] tx, float[] ty, float[] tz, int tlo, int thi,
+                           float[] sx, float[] sy, float[] sz, float[] sm, int lo, int hi, float eps2,
+                           double unit, double[] fx, double[] fy, double[] fz, int first) {
+        int t = tlo;
+        int i = first;
+        for (int e = thi - LANES + 1; t < e; t += LANES, i += LANES) {
+            float x0 = tx[t], y0 = ty[t], z0 = tz[t];
+            float x1 = tx[t + 1], y1 = ty[t + 1], z1 = tz[t + 1];
+            float x2 = tx[t + 2], y2 = ty[t + 2], z2 = tz[t + 2];
+            float x3 = tx[t + 3], y3 = ty[t + 3], z3 = tz[t + 3];
+            double ax0 = 0, ay0 = 0, az0 = 0, ax1 = 0, ay1 = 0, az1 = 0;
+            double ax2 = 0, ay2 = 0, az2 = 0, ax3 = 0, ay3 = 0, az3 = 0;
+            for (int block = lo; block < hi; block += BLOCK) {
+                float bx0 = 0, by0 = 0, bz0 = 0, bx1 = 0, by1 = 0, bz1 = 0;
+                float bx2 = 0, by2 = 0, bz2 = 0, bx3 = 0, by3 = 0, bz3 = 0;
+                for (int j = block, end = Math.min(hi, block + BLOCK); j < end; j++) {
+                    float x = sx[j], y = sy[j], z = sz[j], m = sm[j];
+                    float dx0 = x - x0, dy0 = y - y0, dz0 = z - z0;
+                    float dx1 = x - x1, dy1 = y - y1, dz1 = z - z1;
+                    float dx2 = x - x2, dy2 = y - y2, dz2 = z - z2;
+                    float dx3 = x - x3, dy3 = y - y3, dz3 = z - z3;
+                    float f0 = factor(dx0 * dx0 + dy0 * dy0 + dz0 * dz0, m, eps2);
+                    float f1 = factor(dx1 * dx1 + dy1 * dy1 + dz1 * dz1, m, eps2);
+                    float f2 = factor(dx2 * dx2 + dy2 * dy2 + dz2 * dz2, m, eps2);
+                    float f3 = factor(dx3 * dx3 + dy3 * dy3 + dz3 * dz3, m, eps2);
+                    bx0 += dx0 * f0;
+                    by0 += dy0 * f0;
+                    bz0 += dz0 * f0;
+                    bx1 += dx1 * f1;
+                    by1 += dy1 * f1;
+                    bz1 += dz1 * f1;
+                    bx2 += dx2 * f2;
+                    by2 += dy2 * f2;
+                    bz2 += dz2 * f2;
+                    bx3 += dx3 * f3;
+                    by3 += dy3 * f3;
+                    bz3 += dz3 * f3;
+                }
+                ax0 += bx0;
+                ay0 += by0;
+                az0 += bz0;
+                ax1 += bx1;
+                ay1 += by1;
+                az1 += bz1;
+                ax2 += bx2;
+                ay2 += by2;
+                az2 += bz2;
+                ax3 += bx3;
+                ay3 += by3;
+                az3 += bz3;
+            }
+            fx[i] += unit * ax0;
+            fy[i] += unit * ay0;
+            fz[i] += unit * az0;
+            fx[i + 1] += unit * ax1;
+            fy[i + 1] += unit * ay1;
+            fz[i + 1] += unit * az1;
+            fx[i + 2] += unit * ax2;
+            fy[i + 2] += unit * ay2;
+            fz[i + 2] += unit * az2;
+            fx[i + 3] += unit * ax3;
+            fy[i + 3] += unit * ay3;
+            fz[i + 3] += unit * az3;
+        }
+        for (; t < thi; t++, i++) {
+            float x0 = tx[t], y0 = ty[t], z0 = tz[t];
+            double ax = 0, ay = 0, az = 0;
+            for (int block = lo; block < hi; block += BLOCK) {
+                float bx = 0, by = 0, bz = 0;
+                for (int j = block, end = Math.min(hi, block + BLOCK); j < end; j++) {
+                    float dx = sx[j] - x0, dy = sy[j] - y0, dz = sz[j] - z0;
+                    float f = factor(dx * dx + dy * dy + dz * dz, sm[j], eps2);
+                    bx += dx * f;
+                    by += dy * f;
+                    bz += dz * f;
+                }
+                ax += bx;
+                ay += by;
+                az += bz;
+            }
+            fx[i] += unit * ax;
+            fy[i] += unit * ay;
+            fz[i] += unit * az;
+        }
+    }
+
+    // factor without G in single precision.
+    private static float factor(float r2, float m, float eps2) {
+        return r2 == 0 ? 0 : m / ((r2 + eps2) * (float) Math.sqrt(r2));
+    }
+}
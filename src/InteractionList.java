@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/**
+ Interaction list of a group walk: the accepted cells and the bodies of the opened leaves, which together exert the
+ force on every body of the group. Both lists are kept as primitive columns, so that applying them to the bodies of
+ a group is a tight loop. A list is reused for every group a thread processes.
+ */
+final class InteractionList {
+
+    int cells; // number of cells
+    double[] cx = new double[64], cy = new double[64], cz = new double[64], cm = new double[64]; // mass center, mass
+    boolean quadrupole; // true if the cells carry quadrupole tensors
+    double[] qxx = new double[64], qxy = new double[64], qxz = new double[64];
+    double[] qyy = new double[64], qyz = new double[64], qzz = new double[64];
+
+    int bodies; // number of bodies, the bodies of the group itself included
+    double[] bx = new double[64], by = new double[64], bz = new double[64], bm = new double[64]; // position, mass
+
+    double[] gx = new double[64], gy = new double[64], gz = new double[64]; // forces on the bodies of the group
+
+    // single precision cells and group, relative to the center of the group node and in units of its edge length,
+    // the masses in units of the mass of the root. A single precision walk only fills these cell columns.
+    float[] sx = new float[64], sy = new float[64], sz = new float[64], sm = new float[64];
+    float[] tx = new float[64], ty = new float[64], tz = new float[64];
+
+    void clear() {
+        cells = 0;
+        bodies = 0;
+    }
+
+    // Adds node n of 'nodes' as a cell, with its quadrupole tensor if the list carries them.
+    void addCell(NodePool nodes, int n) {
+        if (cells == cm.length) {
+            int capacity = 2 * cells;
+            cx = Arrays.copyOf(cx, capacity);
+            cy = Arrays.copyOf(cy, capacity);
+            cz = Arrays.copyOf(cz, capacity);
+            cm = Arrays.copyOf(cm, capacity);
+            qxx = Arrays.copyOf(qxx, capacity);
+            qxy = Arrays.copyOf(qxy, capacity);
+            qxz = Arrays.copyOf(qxz, capacity);
+            qyy = Arrays.copyOf(qyy, capacity);
+            qyz = Arrays.copyOf(qyz, capacity);
+            qzz = Arrays.copyOf(qzz, capacity);
+        }
+        cx[cells] = nodes.mx[n];
+        cy[cells] = nodes.my[n];
+        cz[cells] = nodes.mz[n];
+        cm[cells] = nodes.mass[n];
+        if (quadrupole) {
+            qxx[cells] = nodes.qxx[n];
+            qxy[cells] = nodes.qxy[n];
+            qxz[cells] = nodes.qxz[n];
+            qyy[cells] = nodes.qyy[n];
+            qyz[cells] = nodes.qyz[n];
+            qzz[cells] = nodes.qzz[n];
+        }
+        cells++;
+    }
+
+    /**
+     Adds node n as a single precision cell: its mass center relative to (x, y, z) times 'scale', its mass times
+     'massScale'. The double columns are only filled if the list carries quadrupole tensors, which need them.
+     */
+    void addSingleCell(NodePool nodes, int n, double x, double y, double z, double scale, double massScale) {
+        if (cells == sm.length) {
+            int capacity = 2 * cells;
+            sx = Arrays.copyOf(sx, capacity);
+            sy = Arrays.copyOf(sy, capacity);
+            sz = Arrays.copyOf(sz, capacity);
+            sm = Arrays.copyOf(sm, capacity);
+        }
+        sx[cells] = (float) ((nodes.mx[n] - x) * scale);
+        sy[cells] = (float) ((nodes.my[n] - y) * scale);
+        sz[cells] = (float) ((nodes.mz[n] - z) * scale);
+        sm[cells] = (float) (nodes.mass[n] * massScale);
+        if (quadrupole) {
+            addCell(nodes, n);
+        } else {
+            cells++;
+        }
+    }
+
+    void addBody(double x, double y, double z, double m) {
+        if (bodies == bm.length) {
+            int capacity = 2 * bodies;
+            bx = Arrays.copyOf(bx, capacity);
+            by = Arrays.copyOf(by, capacity);
+            bz = Arrays.copyOf(bz, capacity);
+            bm = Arrays.copyOf(bm, capacity);
+        }
+        bx[bodies] = x;
+        by[bodies] = y;
+        bz[bodies] = z;
+        bm[bodies] = m;
+        bodies++;
+    }
+
+    // Sets the forces of the first n bodies of the group to 0.
+    void clearForces(int n) {
+        if (n > gx.length) {
+            gx = new double[Math.max(n, 2 * gx.length)];
+            gy = new double[gx.length];
+            gz = new double[gx.length];
+        }
+        Arrays.fill(gx, 0, n, 0);
+        Arrays.fill(gy, 0, n, 0);
+        Arrays.fill(gz, 0, n, 0);
+    }
+
+    // Makes sure that the single precision columns hold n bodies of the group.
+    void ensureSingle(int n) {
+        if (n > tx.length) {
+            tx = new float[Math.max(n, 2 * tx.length)];
+            ty = new float[tx.length];
+            tz = new float[tx.length];
+        }
+    }
+}
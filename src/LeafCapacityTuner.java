@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+/**
+ Chooses the leaf capacity of a Barnes-Hut tree (see {@link Tree#setLeafCapacity(int)}) that gives the shortest
+ steps for the current bodies. Small leaves make deep trees with many nodes to build and to walk, large leaves make
+ every body sum up many close bodies directly, the best capacity in between depends on the number of bodies and
+ their distribution.
+ <p>The tuner measures real steps: while tuning, each candidate capacity (1, 2, 4, ..., 64) in turn is used for a few
+ consecutive steps and the one with the shortest step wins. A new capacity makes the next update of the tree a full
+ rebuild, so the first step of each candidate is not measured and an incremental tree is timed on its refits. It
+ tunes again after 'retune' steps or if the number of bodies has halved or doubled.</p>
+ */
+public class LeafCapacityTuner implements ForceSolver {
+
+    private static final int[] CANDIDATES = {1, 2, 4, 8, 16, 32, 64};
+    private static final int ROUNDS = 2; // measured steps per candidate after the rebuild, the shortest counts
+    private static final int STEPS = ROUNDS + 1; // steps per candidate
+
+    private final BarnesHutSolver solver;
+    private final int retune;
+    private final double[] times = new double[CANDIDATES.length];
+    private int measured = -1; // number of measured steps of the current tuning, -1 if tuned
+    private int steps; // steps since the last tuning
+    private int tunedSize;
+    private int capacity;
+
+    /**
+     @param solver solver whose tree is tuned.
+     @param retune number of steps after which the capacity is tuned again.
+     */
+    public LeafCapacityTuner(BarnesHutSolver solver, int retune) {
+        this.solver = solver;
+        this.retune = Math.max(1, retune);
+        capacity = solver.getTree().getLeafCapacity();
+    }
+
+    @Override
+    public void computeForces(BodyStore store) {
+        if (measured < 0 && (steps >= retune || store.size() > 2 * tunedSize || 2 * store.size() < tunedSize)) {
+            measured = 0;
+            Arrays.fill(times, Double.MAX_VALUE);
+        }
+        if (measured < 0) {
+            solver.computeForces(store);
+            steps++;
+            return;
+        }
+        int c = measured / STEPS;
+        if (measured % STEPS == 0) {
+            // the switch rebuilds the tree
+            solver.getTree().setLeafCapacity(CANDIDATES[c]);
+            solver.computeForces(store);
+        } else {
+            long start = System.nanoTime();
+            solver.computeForces(store);
+            times[c] = Math.min(times[c], (System.nanoTime() - start) / 1e6);
+        }
+        if (++measured == STEPS * CANDIDATES.length) {
+            int best = 0;
+            for (int i = 1; i < CANDIDATES.length; i++) {
+                if (times[i] < times[best]) best = i;
+            }
+            capacity = CANDIDATES[best];
+            solver.getTree().setLeafCapacity(capacity);
+            measured = -1;
+            steps = 0;
+            tunedSize = store.size();
+        }
+    }
+
+    @Override
+    public void computeForces(BodyStore store, int[] active, int count) {
+        solver.computeForces(store, active, count);
+    }
+
+    // capacity chosen by the last tuning, the one of the tree before the first tuning is finished
+    public int getCapacity() { return capacity; }
+
+    public boolean isTuning() { return measured >= 0; }
+
+    /**
+     @param capacity a candidate capacity.
+     @return shortest step measured with that capacity in the last tuning in ms, NaN if it is no candidate.
+     */
+    public double getTime(int capacity) {
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            if (CANDIDATES[i] == capacity) return times[i] == Double.MAX_VALUE ? Double.NaN : times[i];
+        }
+        return Double.NaN;
+    }
+}
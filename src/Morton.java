@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+/**
+ 63 bit Morton keys (Z-order) of positions within a cube and a radix sort for them.
+ <p>Each coordinate is quantized to 21 bits and the bits of the three coordinates are interleaved, so the key
+ consists of 21 digits of 3 bits, one per level of the octree. The digit of a level is the number of the octant
+ (see {@link NodePool}) the position falls into on that level, which is why the coordinates are measured from the
+ positive corner of the cube.</p>
+ */
+final class Morton {
+
+    static final int LEVELS = 21;
+    private static final long CELLS = 1L << LEVELS;
+
+    private Morton() {}
+
+    /**
+     @return key of the position (x, y, z) within the cube with center (cx, cy, cz) and half edge length h.
+     The position has to lie within the cube.
+     */
+    static long key(double x, double y, double z, double cx, double cy, double cz, double h) {
+        double scale = CELLS / (2.0 * h);
+        return spread(quantize((cx + h - x) * scale))
+                | spread(quantize((cy + h - y) * scale)) << 1
+                | spread(quantize((cz + h - z) * scale)) << 2;
+    }
+
+    private static long quantize(double d) {
+        long q = (long) d;
+        if (q < 0) return 0;
+        if (q >= CELLS) return CELLS - 1;
+        return q;
+    }
+
+    // Spreads the lower 21 bits of v, so that there are two zero bits between every two bits.
+    private static long spread(long v) {
+        v &= 0x1fffffL;
+        v = (v | v << 32) & 0x1f00000000ffffL;
+        v = (v | v << 16) & 0x1f0000ff0000ffL;
+        v = (v | v << 8) & 0x100f00f00f00f00fL;
+        v = (v | v << 4) & 0x10c30c30c30c30c3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+    /**
+     @return number of the octant 'key' falls into on 'level' (1 is the level below the root).
+     */
+    static int digit(long key, int level) {
+        return (int) (key >>> (3 * (LEVELS - level))) & 7;
+    }
+
+    /**
+     @return number of leading digits shared by both keys, LEVELS if they are equal.
+     */
+    static int commonLevels(long a, long b) {
+        if (a == b) return LEVELS;
+        return (Long.numberOfLeadingZeros(a ^ b) - 1) / 3;
+    }
+
+    /**
+     Sorts the first n keys ascending with a least significant digit radix sort, 'values' is permuted the same way.
+     Passes over bytes that are equal for all keys are skipped.
+     @param keyTmp   scratch array, at least n long
+     @param valueTmp scratch array, at least n int
+     @param counts   scratch array, at least 256 int
+     */
+    static void radixSort(long[] keys, int[] values, long[] keyTmp, int[] valueTmp, int[] counts, int n) {
+        long[] k = keys, kt = keyTmp;
+        int[] v = values, vt = valueTmp;
+        for (int shift = 0; shift < 64; shift += 8) {
+            Arrays.fill(counts, 0, 256, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (k[i] >>> shift) & 0xff]++;
+            }
+            if (n == 0 || counts[(int) (k[0] >>> shift) & 0xff] == n) continue;
+            int sum = 0;
+            for (int d = 0; d < 256; d++) {
+                int c = counts[d];
+                counts[d] = sum;
+                sum += c;
+            }
+            for (int i = 0; i < n; i++) {
+                int pos = counts[(int) (k[i] >>> shift) & 0xff]++;
+                kt[pos] = k[i];
+                vt[pos] = v[i];
+            }
+            long[] swapK = k;
+            k = kt;
+            kt = swapK;
+            int[] swapV = v;
+            v = vt;
+            vt = swapV;
+        }
+        if (k != keys) {
+            System.arraycopy(k, 0, keys, 0, n);
+            System.arraycopy(v, 0, values, 0, n);
+        }
+    }
+}
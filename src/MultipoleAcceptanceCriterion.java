@@ -0,0 +1,31 @@
+/**
+ Decides which nodes of the tree are far enough from a body to be used as a whole (as a multipole), see
+ {@link Tree#setCriterion(MultipoleAcceptanceCriterion)}.
+ <p>Every criterion is reduced to an opening radius per node, which the tree computes once per build: a node is
+ accepted for a body if the squared distance of the body is larger than openingRadius2 * targetScale of the body.
+ Distances are measured to the mass center or to the geometric center of the node.</p>
+ */
+public interface MultipoleAcceptanceCriterion {
+
+    /**
+     @return true if distances are measured to the mass center of a node, false for its geometric center.
+     Nodes measured to the mass center are never accepted for a body within bmax of it (see below).
+     */
+    boolean usesMassCenter();
+
+    /**
+     @param length edge length of the node
+     @param bmax   largest distance of a point of the node from its mass center
+     @param mass   total mass of the node
+     @param theta  threshold of the tree, see {@link Tree#setTheta(double)}
+     @return squared opening radius of the node, before the scale of the body.
+     */
+    double openingRadius2(double length, double bmax, double mass, double theta);
+
+    /**
+     @param fx   force on the body in the last step, (0, 0, 0) if there is none
+     @param mass mass of the body
+     @return factor of the opening radius of every node for this body, 1 if it does not depend on the body.
+     */
+    double targetScale(double fx, double fy, double fz, double mass);
+}
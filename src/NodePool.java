@@ -0,0 +1,132 @@
+import java.util.Arrays;
+
+/**
+ Linear pool of octree nodes. Every node is one row in a set of parallel primitive arrays, the 8 children of a node
+ are stored contiguously starting at {@link #firstChild}.
+ <p>The order of the children is the order of the octants used since the first version of the tree:
+ bit 0 of the child number is set if the child lies in -x direction of the center, bit 1 for -y and bit 2 for -z.</p>
+ <p>A pool is reset instead of reallocated, so a tree that is rebuilt every frame stops allocating as soon as the pool
+ has grown to the size it needs.</p>
+ */
+class NodePool {
+
+    static final int NONE = -1;
+
+    double[] cx, cy, cz; // center of the node
+    double[] half; // half of the edge length of the node
+    double[] mass; // total mass of all bodies in the subtree
+    double[] mx, my, mz; // mass center of all bodies in the subtree
+    // traceless quadrupole tensor sum(m * (3 * d * d - |d|² * I)) of the subtree, d measured from the mass center
+    double[] qxx, qxy, qxz, qyy, qyz, qzz;
+    // squared opening radius of the acceptance criterion, and squared bmax if the criterion measures to the mass center
+    double[] open2, reach2;
+    int[] firstChild; // index of the first of the 8 children, NONE for leaves
+    int[] start; // the bodies of the subtree are stored at start, ..., start + count - 1 of the tree order
+    int[] count; // number of bodies in the subtree
+    private int size;
+
+    NodePool(int capacity) {
+        cx = new double[capacity];
+        cy = new double[capacity];
+        cz = new double[capacity];
+        half = new double[capacity];
+        mass = new double[capacity];
+        mx = new double[capacity];
+        my = new double[capacity];
+        mz = new double[capacity];
+        qxx = new double[capacity];
+        qxy = new double[capacity];
+        qxz = new double[capacity];
+        qyy = new double[capacity];
+        qyz = new double[capacity];
+        qzz = new double[capacity];
+        open2 = new double[capacity];
+        reach2 = new double[capacity];
+        firstChild = new int[capacity];
+        start = new int[capacity];
+        count = new int[capacity];
+    }
+
+    // Number of nodes in use.
+    int size() { return size; }
+
+    // Releases all nodes, the memory is kept for the next tree.
+    void reset() { size = 0; }
+
+    // Makes sure that nodes 0, ..., capacity - 1 can be used.
+    void ensureCapacity(int capacity) {
+        if (capacity > firstChild.length) grow(Math.max(capacity, 2 * firstChild.length));
+    }
+
+    // Marks nodes 0, ..., size - 1 as used, after they have been written with initChildren.
+    void setSize(int size) { this.size = size; }
+
+    /**
+     @return index of a new leaf node without bodies, centered at (x, y, z) with half edge length 'h'.
+     */
+    int allocate(double x, double y, double z, double h) {
+        ensureCapacity(size + 1);
+        int n = size++;
+        init(n, x, y, z, h);
+        return n;
+    }
+
+    /**
+     Divides node 'n' into its 8 octants of the same size, which are stored at first, ..., first + 7.
+     The capacity has to be ensured by the caller, the size is not changed.
+     */
+    void initChildren(int n, int first) {
+        double h = half[n] * 0.5;
+        for (int i = 0; i < 8; i++) {
+            init(first + i,
+                    (i & 1) == 0 ? cx[n] + h : cx[n] - h,
+                    (i & 2) == 0 ? cy[n] + h : cy[n] - h,
+                    (i & 4) == 0 ? cz[n] + h : cz[n] - h, h);
+        }
+        firstChild[n] = first;
+    }
+
+    private void init(int n, double x, double y, double z, double h) {
+        cx[n] = x;
+        cy[n] = y;
+        cz[n] = z;
+        half[n] = h;
+        mass[n] = 0;
+        mx[n] = 0;
+        my[n] = 0;
+        mz[n] = 0;
+        qxx[n] = 0;
+        qxy[n] = 0;
+        qxz[n] = 0;
+        qyy[n] = 0;
+        qyz[n] = 0;
+        qzz[n] = 0;
+        open2[n] = 0;
+        reach2[n] = 0;
+        firstChild[n] = NONE;
+        start[n] = 0;
+        count[n] = 0;
+    }
+
+    private void grow(int capacity) {
+        cx = Arrays.copyOf(cx, capacity);
+        cy = Arrays.copyOf(cy, capacity);
+        cz = Arrays.copyOf(cz, capacity);
+        half = Arrays.copyOf(half, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        mx = Arrays.copyOf(mx, capacity);
+        my = Arrays.copyOf(my, capacity);
+        mz = Arrays.copyOf(mz, capacity);
+        qxx = Arrays.copyOf(qxx, capacity);
+        qxy = Arrays.copyOf(qxy, capacity);
+        qxz = Arrays.copyOf(qxz, capacity);
+        qyy = Arrays.copyOf(qyy, capacity);
+        qyz = Arrays.copyOf(qyz, capacity);
+        qzz = Arrays.copyOf(qzz, capacity);
+        open2 = Arrays.copyOf(open2, capacity);
+        reach2 = Arrays.copyOf(reach2, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        start = Arrays.copyOf(start, capacity);
+        count = Arrays.copyOf(count, capacity);
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ Helper to run a loop over an index range on a ForkJoinPool. The range is split in halves until the parts are not
+ larger than the grain size, idle workers steal the halves that are not processed yet.
+ */
+final class Parallel {
+
+    interface RangeBody {
+        // processes the indices lo, ..., hi - 1
+        void run(int lo, int hi);
+    }
+
+    private Parallel() {}
+
+    static void forRange(int lo, int hi, int grain, RangeBody body) {
+        forRange(ForkJoinPool.commonPool(), lo, hi, grain, body);
+    }
+
+    static void forRange(ForkJoinPool pool, int lo, int hi, int grain, RangeBody body) {
+        if (hi - lo <= grain) {
+            body.run(lo, hi);
+        } else {
+            pool.invoke(new RangeTask(lo, hi, Math.max(1, grain), hi, body));
+        }
+    }
+
+    /**
+     A loop that keeps its tasks: the next run from the same start with the same grain size reinitializes them
+     instead of creating new ones, so a loop that runs every step of a simulation only allocates when its range
+     changes. A run over a shorter range reuses the tasks of the longer one and skips the ones past its end.
+     A loop must not run on two threads at the same time.
+     */
+    static final class Loop {
+        private final RangeBody body;
+        private RangeTask root;
+
+        Loop(RangeBody body) {
+            this.body = body;
+        }
+
+        void run(int lo, int hi, int grain) {
+            run(ForkJoinPool.commonPool(), lo, hi, grain);
+        }
+
+        void run(ForkJoinPool pool, int lo, int hi, int grain) {
+            grain = Math.max(1, grain);
+            if (hi - lo <= grain) {
+                body.run(lo, hi);
+                return;
+            }
+            if (root == null || root.lo != lo || root.hi < hi || root.grain != grain) {
+                root = new RangeTask(lo, hi, grain, hi, body);
+            } else {
+                root.reset(hi);
+            }
+            pool.invoke(root);
+        }
+    }
+
+    @SuppressWarnings("serial") // tasks are never serialized
+    private static final class RangeTask extends RecursiveAction {
+        private final int lo, hi, grain;
+        private final RangeBody body;
+        private int end; // end of the current run, the indices from there on are skipped
+        private RangeTask left, right; // the halves, kept for the next run of a Loop
+
+        RangeTask(int lo, int hi, int grain, int end, RangeBody body) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.end = end;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                body.run(lo, Math.min(hi, end));
+                return;
+            }
+            if (left == null) {
+                int mid = (lo + hi) >>> 1;
+                left = new RangeTask(lo, mid, grain, end, body);
+                right = new RangeTask(mid, hi, grain, end, body);
+            }
+            if (right.lo >= end) {
+                left.invoke();
+            } else {
+                invokeAll(left, right);
+            }
+        }
+
+        // Makes the tasks of a run up to 'end' runnable again, the ones past it are not run.
+        void reset(int end) {
+            this.end = end;
+            reinitialize();
+            if (left != null) {
+                left.reset(end);
+                if (right.lo < end) right.reset(end);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ Relative force error criterion, like the one of GADGET: a node of mass M and edge length l at distance r is
+ accepted if the estimated error G * M * l² / r⁴ of its force is below alpha times the acceleration of the body in
+ the last step. Bodies with a strong field accept nodes earlier than bodies in an empty region.
+ <p>The criterion ignores theta. Bodies without a force of the last step (the first step of a simulation) open every
+ node, so for many bodies one step should be calculated with another criterion first.</p>
+ */
+public class RelativeErrorCriterion implements MultipoleAcceptanceCriterion {
+
+    private final double alpha;
+
+    /**
+     @param alpha allowed error relative to the acceleration of the last step, e.g. 0.001.
+     */
+    public RelativeErrorCriterion(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public double getAlpha() { return alpha; }
+
+    @Override
+    public boolean usesMassCenter() { return true; }
+
+    // r⁴ > G * M * l² / (alpha * a) is r² > l * sqrt(G * M / alpha) / sqrt(a)
+    @Override
+    public double openingRadius2(double length, double bmax, double mass, double theta) {
+        return length * Math.sqrt(Body.G * mass / alpha);
+    }
+
+    @Override
+    public double targetScale(double fx, double fy, double fz, double mass) {
+        double a = Math.sqrt(fx * fx + fy * fy + fz * fz) / mass;
+        return a > 0 ? 1 / Math.sqrt(a) : Double.POSITIVE_INFINITY;
+    }
+}
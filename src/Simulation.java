@@ -19,10 +19,24 @@ public class Simulation {
         Body mars = new Body("Mars", 3.301e23, 2440e3, new Vector3(-5.439054e10, 9.394878e9, -1.591727E9), new Vector3(-171170.83, -462970.48, -19250.57), StdDraw.RED);
 
         //manual inputs
-        int n = 5;
         double T = 1; // set Theta for force Approximiation.
         Body[] bodies = new Body[]{sun, earth, mercury, venus, mars};
         boolean drawOcts = false; // if true, draws octants
+        boolean parallel = true; // if true, the tree is built on all cores (small trees are still built serially)
+        int threads = Runtime.getRuntime().availableProcessors(); // threads calculating the forces
+        int groupSize = 0; // if > 0, up to groupSize neighbouring bodies share one tree walk
+        boolean quadrupole = false; // if true, far octants also exert the force of their quadrupole moment
+        boolean singlePrecision = false; // if true, the group walk calculates the far cells in float
+        double errorTarget = 0; // if > 0, Theta is adjusted every step to reach this rms relative force error
+        double frameBudget = 0; // if > 0 (and no error target), Theta is adjusted to calculate a step in these ms
+        int sampleInterval = 0; // if > 0, the force error is checked against direct summation every sampleInterval steps
+        int maxDepth = 21; // levels of the tree, bodies closer than the nodes on the last level share one leaf
+        int leafCapacity = 0; // bodies per leaf of the tree, 0 lets LeafCapacityTuner choose (8 with a Theta controller)
+        double cullRadius = 10 * Window; // bodies farther from the origin, where Sol starts, are removed
+        int fmmOrder = 0; // if > 0, the fast multipole method with expansions of this order replaces Barnes-Hut, it
+        // pays off for many bodies of similar mass, with Sol dominating Barnes-Hut is more accurate at the same cost
+        boolean incremental = true; // if true, the tree is refitted in place while the bodies move little, else rebuilt
+        int blockRungs = 0; // if > 0, bodies near heavy masses take block time steps down to the step / 2^blockRungs
 
         // Scan input and create random bodies and insert them into an Array
         /*
@@ -48,32 +62,68 @@ public class Simulation {
         StdDraw.enableDoubleBuffering();
         StdDraw.clear(StdDraw.BLACK);
 
+        // copy the bodies into one structure of arrays, the bodies are views on it afterwards
+        BodyStore store = new BodyStore(bodies);
+
+        // the tree is refitted or rebuilt every frame, reusing its node memory
+        FmmSolver fmm = fmmOrder > 0 ? new FmmSolver(fmmOrder, 0.7) : null;
+        BarnesHutSolver barnesHut = fmm == null ? new BarnesHutSolver(T) : null;
+        if (barnesHut != null) barnesHut.setIncremental(incremental);
+        Tree octTree = fmm != null ? fmm.getTree() : barnesHut.getTree();
+        octTree.setParallelBuild(parallel);
+        octTree.setThreads(threads);
+        octTree.setGroupSize(groupSize);
+        octTree.setQuadrupole(quadrupole);
+        octTree.setSinglePrecision(singlePrecision);
+        octTree.setMaxDepth(maxDepth);
+        // Theta and the leaf capacity of Barnes-Hut are tuned, the fast multipole method keeps its own
+        ThetaController controller = barnesHut == null ? null
+                : errorTarget > 0 ? ThetaController.forError(barnesHut, errorTarget)
+                : frameBudget > 0 ? ThetaController.forTimeBudget(barnesHut, frameBudget) : null;
+        // the tuner times the steps, so it would mistake the changes of Theta for the ones of the capacity
+        octTree.setLeafCapacity(leafCapacity > 0 ? leafCapacity : 8);
+        LeafCapacityTuner tuner = barnesHut != null && leafCapacity == 0 && controller == null
+                ? new LeafCapacityTuner(barnesHut, 1000) : null;
+        ForceSolver treeSolver = fmm != null ? fmm : controller != null ? controller : tuner != null ? tuner : barnesHut;
+        // few bodies are faster without a tree, drawing octants needs the tree every frame
+        ForceSolver solver = drawOcts ? treeSolver : new AutoSolver(new DirectSolver(), treeSolver);
+        AccuracySampler sampler = sampleInterval > 0 ? new AccuracySampler(solver, sampleInterval, 256) : null;
+        if (sampler != null) solver = sampler;
+
+        // a frame is one full step either way, block steps only calculate the forces of the active bodies in between
+        Integrator integrator = blockRungs > 0
+                ? new BlockTimestepIntegrator(LeapfrogIntegrator.defaultTimeStep(), blockRungs, 0.05, 0.05 * AU)
+                : new LeapfrogIntegrator(LeapfrogIntegrator.defaultTimeStep());
+
         int seconds = 0;
+        int culled = 0;
         // simulation loop
 
         while (true) {
-            // building the tree
-            Tree octTree = new Tree();
-            octTree.setTheta(T);
-            for (int i = 0; i < n; i++) {
-                octTree.add(bodies[i]);
+            // for each body: move it according to the total force exerted on it by all other bodies
+            int escaped = store.cull(cullRadius);
+            if (escaped > 0) {
+                culled += escaped;
+                System.out.println(escaped + " bodies escaped beyond " + cullRadius + " m, " + culled + " removed so far");
             }
-            // Calculate the total octMass and massCenter of each Subtree
-            octTree.finishTree();
-            // if (seconds == 0) System.out.println("Initial number of Bodies" + octTree.numberOfBodies());
-
-            // for each body: move it according to the total force exerted on it using Barnes Hut Algo.
-            for (Body body: bodies) {
-                body.setForce(octTree.calcForce(body));
+            integrator.step(store, solver);
+            if (controller != null && seconds % 100 == 0) {
+                System.out.printf("theta %.3f, estimated error %.2e, step %.1f ms%n", controller.getTheta(),
+                        controller.getEstimatedError(), controller.getStepTime());
+            }
+            if (sampler != null && seconds % 100 == 0 && sampler.getSamples() > 0) {
+                System.out.printf("force error: median %.1e, 99%% %.1e, max of the last sample %.1e%n",
+                        sampler.getPercentile(50), sampler.getPercentile(99), sampler.getLastPercentile(100));
             }
-            for (Body body: bodies) {
-                body.move();
+            if (seconds % 100 == 0 && octTree.getOverflowLeaves() > 0) {
+                System.out.println(octTree.getOverflowLeaves() + " leaves of the tree hold bodies closer than its "
+                        + "deepest nodes");
             }
             // clear old positions (exclude the following line if you want to draw orbits).
             StdDraw.clear(StdDraw.BLACK);
 
             // draw new positions, need to be updated to reflect z-position for the order of drawing
-            for (int i = 0; i < n; i++) bodies[i].draw();
+            store.draw();
 
             if (drawOcts) octTree.drawOctant();
             //System.out.println(octTree.drawOctant()); // debug, print number of drawn octants
@@ -0,0 +1,136 @@
+import java.util.Random;
+
+/**
+ Barnes-Hut with a Theta that is adjusted between the steps, either to reach a target force error or to stay within
+ a time budget per step. The same simulation can so run interactively at a fixed frame rate or in batch at a fixed
+ accuracy.
+ <p>The error is estimated after the step on a random sample of bodies, whose exact forces are calculated by direct
+ summation (sample size times number of bodies interactions, a small part of the walk for the default sample).
+ It is the root mean square of the relative errors of the sample. The time is the wall clock time of the step
+ without the estimate.</p>
+ <p>The error grows and the time falls about like a power of Theta, so the next Theta is the current one scaled with
+ the ratio of target and measured error, or of measured and budgeted time, to the power 1/3. The change per step is
+ limited, so a noisy measurement does not make Theta jump.</p>
+ */
+public class ThetaController implements ForceSolver {
+
+    private static final double MAX_CHANGE = 1.25; // largest factor by which Theta changes from one step to the next
+
+    private final BarnesHutSolver solver;
+    private final double targetError; // 0 if the controller keeps the time budget
+    private final double budget; // milliseconds per step, 0 if the controller reaches the target error
+    private double minTheta = 0.1, maxTheta = 1;
+
+    private final Random random = new Random(1);
+    private int[] sample = new int[64];
+    private double[] ex = new double[64], ey = new double[64], ez = new double[64];
+    private int sampleInterval = 1;
+    private int steps;
+
+    private double error = Double.NaN;
+    private double stepTime;
+
+    private ThetaController(BarnesHutSolver solver, double targetError, double budget) {
+        this.solver = solver;
+        this.targetError = targetError;
+        this.budget = budget;
+        if (budget > 0) sampleInterval = 10;
+    }
+
+    /**
+     @return controller that adjusts the Theta of 'solver' until the estimated rms relative force error is
+     'targetError'.
+     */
+    public static ThetaController forError(BarnesHutSolver solver, double targetError) {
+        if (!(targetError > 0)) throw new IllegalArgumentException("target error has to be positive");
+        return new ThetaController(solver, targetError, 0);
+    }
+
+    /**
+     @return controller that adjusts the Theta of 'solver' until a step takes 'millis' milliseconds. The error is
+     still estimated every 10th step, see {@link #setSampleInterval(int)}.
+     */
+    public static ThetaController forTimeBudget(BarnesHutSolver solver, double millis) {
+        if (!(millis > 0)) throw new IllegalArgumentException("time budget has to be positive");
+        return new ThetaController(solver, 0, millis);
+    }
+
+    /**
+     @param min smallest Theta the controller chooses.
+     @param max largest Theta the controller chooses, 1 by default. Beyond 1 a node may be accepted by a body inside
+     of it, which gives close bodies wrong kicks that the error sample rarely sees.
+     */
+    public void setRange(double min, double max) {
+        minTheta = min;
+        maxTheta = max;
+    }
+
+    /**
+     @param size number of bodies whose exact force is calculated for the error estimate.
+     */
+    public void setSampleSize(int size) {
+        sample = new int[Math.max(1, size)];
+        ex = new double[sample.length];
+        ey = new double[sample.length];
+        ez = new double[sample.length];
+    }
+
+    /**
+     @param interval the error is estimated every interval steps, 0 never estimates it. Only used with a time
+     budget, the error target needs the estimate every step.
+     */
+    public void setSampleInterval(int interval) { sampleInterval = Math.max(0, interval); }
+
+    // metrics of the last step
+
+    public double getTheta() { return solver.getTree().getTheta(); }
+
+    /**
+     @return estimated rms relative force error of the last estimate, NaN if there was none yet.
+     */
+    public double getEstimatedError() { return error; }
+
+    /**
+     @return time of the last step in milliseconds, without the error estimate.
+     */
+    public double getStepTime() { return stepTime; }
+
+    @Override
+    public void computeForces(BodyStore store) {
+        long start = System.nanoTime();
+        solver.computeForces(store);
+        stepTime = (System.nanoTime() - start) / 1e6;
+        boolean estimate = targetError > 0 || (sampleInterval > 0 && steps % sampleInterval == 0);
+        steps++;
+        if (estimate && store.size() > 1) error = estimateError(store);
+        double ratio = targetError > 0 ? targetError / error : stepTime / budget;
+        if (!(ratio > 0) || Double.isInfinite(ratio)) return; // no error left to control, or no time measured
+        double change = Math.max(1 / MAX_CHANGE, Math.min(MAX_CHANGE, Math.cbrt(ratio)));
+        solver.getTree().setTheta(Math.max(minTheta, Math.min(maxTheta, getTheta() * change)));
+    }
+
+    // Sub steps of block time steps are passed on, Theta is only adjusted on full steps.
+    @Override
+    public void computeForces(BodyStore store, int[] active, int count) {
+        solver.computeForces(store, active, count);
+    }
+
+    // rms of the relative force errors of a random sample of bodies
+    private double estimateError(BodyStore store) {
+        int count = Math.min(sample.length, store.size());
+        for (int i = 0; i < count; i++) {
+            sample[i] = random.nextInt(store.size());
+        }
+        DirectSolver.sampleForces(store, sample, count, ex, ey, ez);
+        double sum = 0;
+        for (int i = 0; i < count; i++) {
+            int b = sample[i];
+            double dx = store.fx[b] - ex[i];
+            double dy = store.fy[b] - ey[i];
+            double dz = store.fz[b] - ez[i];
+            double ref = ex[i] * ex[i] + ey[i] * ey[i] + ez[i] * ez[i];
+            if (ref > 0) sum += (dx * dx + dy * dy + dz * dz) / ref;
+        }
+        return Math.sqrt(sum / count);
+    }
+}
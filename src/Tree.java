@@ -1,66 +1,1491 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public class Tree {
 
-    private final Vector3 UniverseCenter = new Vector3(0, 0, 0);
-    private OctantNode root;
+    private static final int ROOT = 0;
+    private static final long OUTSIDE = -1; // key of bodies without a finite position, sorts behind all other keys
+    // the root is larger than the bounding box of the bodies by this fraction, so update() can refit while the
+    // outermost bodies move a little
+    private static final double ROOT_MARGIN = 1.0 / 32;
+
+    private final NodePool nodes = new NodePool(64);
+    private BodyStore store;
     private double Theta;
 
+    // bodies of the tree, sorted by their Morton key. Bodies outside of the root follow the bodies in the tree.
+    private int[] order = new int[16];
+    private int bodyCount; // number of bodies added
+    private int treeCount; // number of bodies within the root, the first treeCount entries of order
+    private double rootX, rootY, rootZ, rootHalf; // cube of the root of the last build
+    private double[] chunkBounds = new double[6]; // min x, y, z and max x, y, z of every chunk of the bounds reduction
+    private long[] keys = new long[16];
+    // positions and masses of the bodies in tree order, so that leaves read them contiguously
+    private double[] px = new double[16], py = new double[16], pz = new double[16], pm = new double[16];
+
+    // scratch memory of the build
+    private long[] keyTmp = new long[16];
+    private int[] orderTmp = new int[16];
+
+    // incremental update, see update()
+    private int[] leafOf = new int[16], leafTmp = new int[16]; // leaf of every body in tree order
+    private boolean leavesValid; // false if leafOf has to be filled from the nodes first
+    private int[] movers = new int[16]; // tree positions of the bodies that change their leaf in the current refit
+    private int moverCount;
+    private int[] cursor = new int[64]; // old counts during a refit, then the next free position of every leaf
+    private double maxMovers = 0.1;
+    private int builtNodes; // number of nodes after the last build
+    private long movedSinceBuild;
+    private int refits, rebuilds;
+    private int backoff, skipRefits; // updates that rebuild without trying to refit, after refits failed
+    private final int[] radixCounts = new int[256];
+    private final int[] path = new int[Morton.LEVELS + 1];
+
+    // explicit stack of the iterative walks, one per thread. A walk pushes at most 9 entries per level (8 children
+    // and a marker) or 8 pairs of node and depth, so 16 entries per level are enough.
+    private static final int STACK_SIZE = 16 * (Morton.LEVELS + 1);
+    private final ThreadLocal<int[]> walkStack = ThreadLocal.withInitial(() -> new int[STACK_SIZE]);
+    private final ThreadLocal<int[]> buildPath = ThreadLocal.withInitial(() -> new int[Morton.LEVELS + 1]);
+    // parallel passes of every step, they keep their tasks from one step to the next
+    private final Parallel.Loop copyLoop = new Parallel.Loop(this::copyBodies);
+    private final Parallel.Loop keyLoop = new Parallel.Loop(this::computeKeys);
+    private final Parallel.Loop boundsLoop = new Parallel.Loop(this::chunkBounds);
+    private final Parallel.Loop forceLoop = new Parallel.Loop(this::calcForces);
+    private final Parallel.Loop groupLoop = new Parallel.Loop(this::calcGroupForces);
+    private final Parallel.Loop activeLoop = new Parallel.Loop(this::calcActiveForces);
+
+    private boolean parallelBuild;
+    private int grainSize = 4096;
+    private int leafCapacity = 1; // a node is split if it holds more bodies
+    private int builtCapacity; // leaf capacity of the last build
+    private int maxDepth = Morton.LEVELS; // nodes on this level are not split, however many bodies they hold
+    private int builtDepth; // maximum depth of the last build
+
+    private static final int FORCE_CHUNK = 128; // bodies per task of the parallel force calculation
+    private ForkJoinPool forcePool; // null if the forces are calculated by the calling thread
+    private int[] active; // store indices of the bodies of calcForces(int[], int) while it runs
+    private int activeCount;
+
+    private static final int GROUP_CHUNK = 4; // groups per task of the parallel group walk
+    private int groupSize; // largest number of bodies sharing one walk, 0 if every body walks the tree itself
+    private int[] groups = new int[16]; // nodes whose bodies share one walk, in tree order
+    private int groupCount;
+    private final ThreadLocal<InteractionList> interactions = ThreadLocal.withInitial(InteractionList::new);
+
+    private boolean quadrupole; // if true, accepted nodes also exert the force of their quadrupole moment
+    private boolean singlePrecision; // if true, the group walk calculates the monopoles of the cells in float
+
+    private MultipoleAcceptanceCriterion criterion = new GeometricCriterion();
+    private boolean radiiValid; // false if the opening radii have to be computed again before the next walk
+    // number of nodes and bodies acting on every body in the last force calculation, by body index in the store
+    private int[] cellInteractions = new int[16], bodyInteractions = new int[16];
+
     /**
-     @param body body that should be added to the tree.
+     Removes all bodies from the tree. The memory is kept, so the tree can be rebuilt every frame without allocating.
+     */
+    public void clear() {
+        nodes.reset();
+        store = null;
+        bodyCount = 0;
+        treeCount = 0;
+    }
+
+    /**
+     @param body body that should be added to the tree. All bodies of a tree have to belong to the same
+     {@link BodyStore}, a body that still has its own store (see {@link Body#Body}) is moved into the store of the tree.
+     The bodies are sorted into the tree by {@link #finishTree()}.
      */
     public void add(Body body) {
         if (body == null) {
             return;
         }
-        if (root == null) {
-            root = new OctantNode(body, UniverseCenter, 2.0 * Simulation.Window);
-        } else {
-            root.add(body);
+        if (store != null && body.getStore() != store) {
+            if (body.getStore().size() != 1) {
+                throw new IllegalArgumentException("all bodies of a tree have to belong to the same BodyStore");
+            }
+            store.add(body);
+        }
+        add(body.getStore(), body.getIndex());
+    }
+
+    /**
+     @param store adds every body of this store to the tree.
+     */
+    public void addAll(BodyStore store) {
+        ensureBodies(bodyCount + store.size());
+        for (int i = 0; i < store.size(); i++) {
+            add(store, i);
         }
     }
 
+    private void add(BodyStore store, int body) {
+        if (this.store == null) {
+            this.store = store;
+        } else if (this.store != store) {
+            throw new IllegalArgumentException("all bodies of a tree have to belong to the same BodyStore");
+        }
+        ensureBodies(bodyCount + 1);
+        order[bodyCount++] = body;
+    }
+
+    private void ensureBodies(int n) {
+        if (n <= order.length) return;
+        int capacity = Math.max(n, 2 * order.length);
+        order = Arrays.copyOf(order, capacity);
+        keys = new long[capacity];
+        px = new double[capacity];
+        py = new double[capacity];
+        pz = new double[capacity];
+        pm = new double[capacity];
+        keyTmp = new long[capacity];
+        orderTmp = new int[capacity];
+        leafOf = new int[capacity];
+        leafTmp = new int[capacity];
+    }
+
+    /**
+     @param parallel if true, {@link #finishTree()} builds the tree on the ForkJoin common pool. The tree is the same
+     as the one built serially.
+     */
+    public void setParallelBuild(boolean parallel) { parallelBuild = parallel; }
+
+    /**
+     @param grain number of bodies below which a part of the parallel build is done serially by one task.
+     */
+    public void setGrainSize(int grain) { grainSize = Math.max(2, grain); }
+
+    /**
+     @param capacity largest number of bodies of a leaf, a node holding more is split (nodes on the last level hold
+     any number). 1 gives the tree of the original version, with one body per leaf. Larger leaves make the tree
+     flatter and smaller, their bodies act on each other with a direct sum. Takes effect with the next build, see
+     {@link LeafCapacityTuner} for a capacity that fits the bodies.
+     */
+    public void setLeafCapacity(int capacity) { leafCapacity = Math.max(1, capacity); }
+
+    public int getLeafCapacity() { return leafCapacity; }
+
+    /**
+     @param depth level below which no node is split, from 1 to 21 (the resolution of the Morton keys, the default).
+     Bodies that lie closer than the edge of a node on that level pile up in one leaf, whose bodies act on each other
+     by direct summation. This bounds the nodes of the tree and the length of the walks for any input. Bodies that
+     share a Morton key, like bodies at one position, are never split apart: they pile up in the leaf one level below
+     the last node they share with another body.
+     */
+    public void setMaxDepth(int depth) { maxDepth = Math.max(1, Math.min(Morton.LEVELS, depth)); }
+
+    public int getMaxDepth() { return maxDepth; }
+
+    /**
+     @return number of leaves of the tree holding more than the leaf capacity, because they are on the maximum depth
+     or all their bodies share one Morton key.
+     */
+    public int getOverflowLeaves() {
+        int overflow = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            if (isLeaf(n) && nodes.count[n] > leafCapacity) overflow++;
+        }
+        return overflow;
+    }
+
+    /**
+     @param threads number of threads {@link #calcForces()} uses, 1 calculates all forces in the calling thread.
+     */
+    public void setThreads(int threads) {
+        if (forcePool != null) forcePool.shutdown();
+        forcePool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     @param groupSize if larger than 0, {@link #calcForces()} uses the group walk: the bodies of every largest node
+     holding no more than groupSize bodies share one walk. 0 lets every body walk the tree itself.
+     */
+    public void setGroupSize(int groupSize) { this.groupSize = Math.max(0, groupSize); }
+
+    /**
+     @param quadrupole if true, {@link #finishTree()} also calculates the quadrupole moment of every node and the
+     force of an accepted node includes it. This costs a third walk over the nodes and about twice the work per
+     accepted node, but reaches the same accuracy with a larger Theta, so fewer nodes are opened.
+     */
+    public void setQuadrupole(boolean quadrupole) { this.quadrupole = quadrupole; }
+
+    /**
+     @param singlePrecision if true, the group walk (see {@link #setGroupSize(int)}) calculates the force of the
+     accepted cells in float: the walk stores the cells, and the bodies of the group are stored, relative to the center
+     of the group node in units of its edge length, the masses relative to the root. The force of every body is still
+     summed up in double, the bodies of the opened leaves, the quadrupole moments, the positions and the integration
+     stay in double. The walk of single bodies is not affected. See Benchmark mode "single" for the accuracy.
+     */
+    public void setSinglePrecision(boolean singlePrecision) { this.singlePrecision = singlePrecision; }
+
+    /**
+     @param criterion decides which nodes are far enough from a body to be used as a whole. The default is
+     {@link GeometricCriterion}, the criterion of the original tree.
+     */
+    public void setCriterion(MultipoleAcceptanceCriterion criterion) {
+        this.criterion = criterion;
+        radiiValid = false;
+    }
+
+    public MultipoleAcceptanceCriterion getCriterion() { return criterion; }
+
+    /**
+     Builds the tree from all added bodies, then calculates the total octMass and massCenter of each Subtree and the
+     opening radius of every node.
+     */
     public void finishTree() {
-        if (root == null) return;
-        root.setOctMass();
-        root.setMassCenter();
+        build();
+        aggregate();
+        setOpeningRadii();
+    }
+
+    /**
+     Updates the tree after the bodies have moved a little, without sorting them again: the positions are read from
+     the store, then the masses, mass centers (and quadrupole moments) and the opening radii are calculated again.
+     Every body stays in its leaf, so this is much cheaper than {@link #finishTree()}, but a body that left its node
+     makes the opening radius of the node too small. It is meant for the sub steps of block time steps, between the
+     rebuilds of the full steps.
+     */
+    public void refresh() {
+        if (treeCount == 0) return;
+        if (parallelBuild && treeCount > grainSize) {
+            copyLoop.run(0, treeCount, grainSize);
+        } else {
+            copyBodies(0, treeCount);
+        }
+        aggregate();
+        setOpeningRadii();
+    }
+
+    /**
+     Brings the tree up to date with the current positions of its bodies. If possible the tree is refitted in place:
+     <ul>
+     <li>Bodies that are still inside their leaf keep it, they only change the masses and mass centers, which are
+     aggregated again bottom up.</li>
+     <li>Only the bodies that crossed the border of their leaf are removed and inserted again from the root, into the
+     leaf their Morton key leads to. A leaf they share with another body is split, the new nodes are appended to
+     the pool.</li>
+     <li>The bodies are then placed in the tree order of the new leaves with a counting pass, no sort.</li>
+     </ul>
+     The tree is rebuilt by {@link #finishTree()} instead if it was never built or the leaf capacity or the maximum
+     depth changed, if a body entered or left the root, if the bodies contracted so that a build would choose a root
+     smaller by more than the margin of the root, if more than the fraction {@link #setMaxMovers(double)} of the bodies
+     changed its leaf, or if the quality of the tree degraded: more bodies changed their leaf since the last build than
+     half of the bodies, or the splits doubled the number of nodes. Leaves that were emptied stay in the tree until the
+     next build.
+     <p>A failed refit costs about a third of a build, so after failed refits the next updates rebuild directly, the
+     number of them doubling with every failure, up to 63.</p>
+     */
+    public void update() {
+        if (nodes.size() == 0 || skipRefits > 0 || builtCapacity != leafCapacity || builtDepth != maxDepth) {
+            if (skipRefits > 0) skipRefits--;
+            finishTree();
+        } else if (refit()) {
+            backoff = 0;
+        } else {
+            // the bodies move too fast for refits, try again after 1, 3, 7, ... 63 rebuilds
+            backoff = Math.min(2 * backoff + 1, 63);
+            skipRefits = backoff;
+            finishTree();
+        }
     }
 
-    public void setTheta(double T) { Theta = T; }
+    /**
+     @param fraction largest fraction of the bodies that may change their leaf in one {@link #update()}, with more
+     the tree is rebuilt.
+     */
+    public void setMaxMovers(double fraction) { maxMovers = fraction; }
+
+    // number of updates that refitted the tree
+    public int getRefits() { return refits; }
+
+    // number of builds, by finishTree() or by update()
+    public int getRebuilds() { return rebuilds; }
+
+    // Refits the tree, see update(). Returns false without finishing the refit if the tree has to be rebuilt.
+    private boolean refit() {
+        if (movedSinceBuild > treeCount / 2 || nodes.size() > 2 * builtNodes) return false;
+        double h = rootHalf;
+        for (int k = treeCount; k < bodyCount; k++) {
+            int b = order[k];
+            if (inRoot(store.x[b], store.y[b], store.z[b])) return false;
+        }
+        if (!leavesValid) findLeaves();
+        moverCount = 0;
+        int limit = (int) (maxMovers * treeCount);
+        double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+        for (int k = 0; k < treeCount; k++) {
+            int b = order[k];
+            double x = store.x[b], y = store.y[b], z = store.z[b];
+            if (!inRoot(x, y, z)) return false;
+            long key = Morton.key(x, y, z, rootX, rootY, rootZ, h);
+            if (Morton.commonLevels(key, keys[k]) < levelOf(leafOf[k])) {
+                if (moverCount == limit) return false;
+                addMover(k);
+            }
+            keys[k] = key;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            minZ = Math.min(minZ, z);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+            maxZ = Math.max(maxZ, z);
+        }
+        // the bodies contracted: a build would choose a root smaller by more than the margin, with finer nodes
+        double fit = 0.5 * Math.max(maxX - minX, Math.max(maxY - minY, maxZ - minZ)) * (1 + ROOT_MARGIN);
+        if (fit * (1 + ROOT_MARGIN) < h) return false;
+        refits++;
+        if (moverCount > 0) {
+            movedSinceBuild += moverCount;
+            int oldNodes = nodes.size();
+            // the counts of the last layout, the ranges of the old leaves
+            if (cursor.length < oldNodes) cursor = new int[Math.max(oldNodes, 2 * cursor.length)];
+            System.arraycopy(nodes.count, 0, cursor, 0, oldNodes);
+            for (int i = 0; i < moverCount; i++) {
+                nodes.count[leafOf[movers[i]]]--;
+                leafOf[movers[i]] = NodePool.NONE;
+            }
+            for (int i = 0, e = moverCount; i < e; i++) {
+                place(movers[i], oldNodes);
+            }
+            layout();
+        }
+        copyBodies(0, treeCount);
+        aggregate();
+        setOpeningRadii();
+        return true;
+    }
+
+    private boolean inRoot(double x, double y, double z) {
+        double h = rootHalf;
+        return Math.abs(x - rootX) <= h && Math.abs(y - rootY) <= h && Math.abs(z - rootZ) <= h;
+    }
+
+    // Level of node n, the root is on level 0. Every level halves the edge length exactly.
+    private int levelOf(int n) {
+        return Math.getExponent(rootHalf) - Math.getExponent(nodes.half[n]);
+    }
+
+    // Fills leafOf from the ranges of the leaves.
+    private void findLeaves() {
+        for (int n = 0; n < nodes.size(); n++) {
+            if (!isLeaf(n)) continue;
+            for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+                leafOf[k] = n;
+            }
+        }
+        leavesValid = true;
+    }
+
+    private void addMover(int k) {
+        if (moverCount == movers.length) movers = Arrays.copyOf(movers, 2 * moverCount);
+        movers[moverCount++] = k;
+    }
+
+    // Inserts the body at tree position k from the root into the leaf of its key, splitting full leaves.
+    private void place(int k, int oldNodes) {
+        long key = keys[k];
+        int n = ROOT;
+        int level = 0;
+        while (true) {
+            if (isLeaf(n)) {
+                if (nodes.count[n] < leafCapacity || level == maxDepth || holdsOnly(n, key, oldNodes)) break;
+                split(n, level, oldNodes);
+            }
+            n = nodes.firstChild[n] + Morton.digit(key, ++level);
+        }
+        leafOf[k] = n;
+        nodes.count[n]++;
+    }
+
+    // Returns if all bodies of leaf n have the key 'key', a split would not separate them from a body of that key.
+    private boolean holdsOnly(int n, long key, int oldNodes) {
+        if (n < oldNodes) {
+            for (int k = nodes.start[n], e = k + cursor[n]; k < e; k++) {
+                if (leafOf[k] == n && keys[k] != key) return false;
+            }
+        }
+        for (int i = 0; i < moverCount; i++) {
+            if (leafOf[movers[i]] == n && keys[movers[i]] != key) return false;
+        }
+        return true;
+    }
+
+    /**
+     Divides leaf n on 'level' into 8 new leaves at the end of the pool and moves its bodies into them. The bodies of
+     a leaf of the last layout are found in its old range (the old counts are kept in cursor), the others are movers
+     of this refit. Bodies from the old range become movers, so they are found in their new leaf.
+     */
+    private void split(int n, int level, int oldNodes) {
+        int first = nodes.size();
+        nodes.ensureCapacity(first + 8);
+        nodes.initChildren(n, first);
+        nodes.setSize(first + 8);
+        nodes.count[n] = 0;
+        int movedBefore = moverCount;
+        if (n < oldNodes) {
+            for (int k = nodes.start[n], e = k + cursor[n]; k < e; k++) {
+                if (leafOf[k] != n) continue;
+                addMover(k);
+                moveInto(k, first, level);
+            }
+        }
+        for (int i = 0; i < movedBefore; i++) {
+            if (leafOf[movers[i]] == n) moveInto(movers[i], first, level);
+        }
+    }
+
+    private void moveInto(int k, int first, int level) {
+        int child = first + Morton.digit(keys[k], level + 1);
+        leafOf[k] = child;
+        nodes.count[child]++;
+    }
+
+    /**
+     Places the bodies in the order of their leaves after a refit: the counts of the inner nodes are summed up, the
+     starts are assigned in tree order (the order of the children is the order of the keys), then every body is
+     written to the next free position of its leaf.
+     */
+    private void layout() {
+        int[] stack = walkStack.get();
+        int top = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int n = stack[--top];
+            if (n < 0) {
+                int count = 0;
+                for (int i = nodes.firstChild[~n], e = i + 8; i < e; i++) {
+                    count += nodes.count[i];
+                }
+                nodes.count[~n] = count;
+            } else if (!isLeaf(n)) {
+                stack[top++] = ~n;
+                for (int first = nodes.firstChild[n], i = first + 7; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
+        nodes.start[ROOT] = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int n = stack[--top];
+            if (isLeaf(n)) continue;
+            for (int s = nodes.start[n], i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                nodes.start[i] = s;
+                s += nodes.count[i];
+                stack[top++] = i;
+            }
+        }
+        if (cursor.length < nodes.size()) cursor = new int[Math.max(nodes.size(), 2 * cursor.length)];
+        System.arraycopy(nodes.start, 0, cursor, 0, nodes.size());
+        for (int k = 0; k < treeCount; k++) {
+            int leaf = leafOf[k];
+            int p = cursor[leaf]++;
+            orderTmp[p] = order[k];
+            keyTmp[p] = keys[k];
+            leafTmp[p] = leaf;
+        }
+        System.arraycopy(order, treeCount, orderTmp, treeCount, bodyCount - treeCount);
+        System.arraycopy(keys, treeCount, keyTmp, treeCount, bodyCount - treeCount);
+        int[] o = order;
+        order = orderTmp;
+        orderTmp = o;
+        long[] kk = keys;
+        keys = keyTmp;
+        keyTmp = kk;
+        int[] l = leafOf;
+        leafOf = leafTmp;
+        leafTmp = l;
+    }
+
+    // true if the tree was built from all bodies of 'store'
+    boolean holds(BodyStore store) {
+        return this.store == store && bodyCount == store.size() && nodes.size() > 0;
+    }
+
+    /**
+     Bulk build: the bodies are sorted by the Morton keys of their positions, then the nodes are created in a single
+     scan over the sorted keys, see {@link #buildRange(int, int, int, int, int, int[])}.
+     The root is the cube around the bounding box of the bodies, see {@link #computeRoot(boolean)}. Bodies without a
+     finite position are not part of the tree.
+     <p>The parallel build computes keys and tree order copies on the common pool. The nodes are built by
+     {@link BuildTask}s, which place every subtree exactly where the serial scan would have put it.</p>
+     */
+    private void build() {
+        nodes.reset();
+        radiiValid = false;
+        leavesValid = false;
+        movedSinceBuild = 0;
+        builtCapacity = leafCapacity;
+        builtDepth = maxDepth;
+        rebuilds++;
+        treeCount = 0;
+        if (bodyCount == 0) return;
+        boolean parallel = parallelBuild && bodyCount > grainSize;
+        computeRoot(parallel);
+        if (parallel) {
+            keyLoop.run(0, bodyCount, grainSize);
+        } else {
+            computeKeys(0, bodyCount);
+        }
+        Morton.radixSort(keys, order, keyTmp, orderTmp, radixCounts, bodyCount);
+        int n = bodyCount;
+        while (n > 0 && keys[n - 1] == OUTSIDE) n--;
+        treeCount = n;
+        if (n == 0) return;
+        if (parallel) {
+            copyLoop.run(0, n, grainSize);
+        } else {
+            copyBodies(0, n);
+        }
+        nodes.allocate(rootX, rootY, rootZ, rootHalf);
+        if (parallel) {
+            CountTask count = new CountTask(0, 0, n);
+            ForkJoinPool.commonPool().invoke(count);
+            nodes.ensureCapacity(1 + count.size);
+            ForkJoinPool.commonPool().invoke(new BuildTask(count, ROOT, 1));
+            nodes.setSize(1 + count.size);
+        } else {
+            nodes.setSize(buildSerial(ROOT, 0, 0, n, 1, path));
+        }
+        builtNodes = nodes.size();
+    }
+
+    /**
+     Sizes the root to the current positions: the bounding box of the bodies is a min/max reduction over chunks of
+     grainSize bodies, in parallel on the common pool if 'parallel' is true. The root is the cube around the box,
+     enlarged by ROOT_MARGIN. Positions that are not finite are ignored, without bodies the root is the unit cube.
+     */
+    private void computeRoot(boolean parallel) {
+        int chunks = (bodyCount + grainSize - 1) / grainSize;
+        if (chunkBounds.length < 6 * chunks) chunkBounds = new double[6 * Math.max(chunks, 2 * chunkBounds.length / 6)];
+        if (parallel) {
+            boundsLoop.run(0, chunks, 1);
+        } else {
+            chunkBounds(0, chunks);
+        }
+        double[] c = chunkBounds;
+        for (int k = 1; k < chunks; k++) {
+            for (int j = 0; j < 3; j++) {
+                c[j] = Math.min(c[j], c[6 * k + j]);
+                c[j + 3] = Math.max(c[j + 3], c[6 * k + j + 3]);
+            }
+        }
+        if (chunks == 0 || c[0] > c[3]) {
+            rootX = rootY = rootZ = 0;
+            rootHalf = 1;
+            return;
+        }
+        rootX = 0.5 * (c[0] + c[3]);
+        rootY = 0.5 * (c[1] + c[4]);
+        rootZ = 0.5 * (c[2] + c[5]);
+        double h = 0.5 * Math.max(c[3] - c[0], Math.max(c[4] - c[1], c[5] - c[2])) * (1 + ROOT_MARGIN);
+        rootHalf = h > 0 ? h : 1; // all bodies at one position
+    }
+
+    // Bounding boxes of the chunks lo, ..., hi - 1, see computeRoot().
+    private void chunkBounds(int lo, int hi) {
+        for (int k = lo; k < hi; k++) {
+            double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+            for (int i = k * grainSize, e = Math.min(bodyCount, i + grainSize); i < e; i++) {
+                int b = order[i];
+                double x = store.x[b], y = store.y[b], z = store.z[b];
+                if (!Double.isFinite(x) || !Double.isFinite(y) || !Double.isFinite(z)) continue;
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                minZ = Math.min(minZ, z);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+            }
+            int j = 6 * k;
+            chunkBounds[j] = minX;
+            chunkBounds[j + 1] = minY;
+            chunkBounds[j + 2] = minZ;
+            chunkBounds[j + 3] = maxX;
+            chunkBounds[j + 4] = maxY;
+            chunkBounds[j + 5] = maxZ;
+        }
+    }
+
+    private void computeKeys(int lo, int hi) {
+        double h = rootHalf;
+        for (int i = lo; i < hi; i++) {
+            int b = order[i];
+            double x = store.x[b], y = store.y[b], z = store.z[b];
+            if (inRoot(x, y, z)) {
+                keys[i] = Morton.key(x, y, z, rootX, rootY, rootZ, h);
+            } else {
+                keys[i] = OUTSIDE;
+            }
+        }
+    }
+
+    private void copyBodies(int lo, int hi) {
+        for (int i = lo; i < hi; i++) {
+            int b = order[i];
+            px[i] = store.x[b];
+            py[i] = store.y[b];
+            pz[i] = store.z[b];
+            pm[i] = store.mass[b];
+        }
+    }
+
+    // Builds the subtree of 'node' with the scan for single body leaves, or by partitioning for larger leaves.
+    private int buildSerial(int node, int level, int lo, int hi, int next, int[] path) {
+        return leafCapacity == 1 ? buildRange(node, level, lo, hi, next, path) : buildBuckets(node, level, lo, hi, next);
+    }
+
+    /**
+     Builds the subtree of 'node' on 'level' from the sorted bodies lo, ..., hi - 1 for leaves of up to leafCapacity
+     bodies: a node holding more is split and its range partitioned by the key digit of the next level. The
+     children are placed like in {@link #buildRange(int, int, int, int, int, int[])}, depth first, so the layout is
+     the one {@link #countNodes(int, int, int)} counts.
+     @return index of the first free node after the subtree.
+     */
+    private int buildBuckets(int node, int level, int lo, int hi, int next) {
+        nodes.start[node] = lo;
+        nodes.count[node] = hi - lo;
+        if (staysLeaf(level, lo, hi)) return next;
+        int first = next;
+        nodes.ensureCapacity(first + 8);
+        nodes.initChildren(node, first);
+        next += 8;
+        for (int d = 0, s = lo; d < 8; d++) {
+            int e = digitEnd(level + 1, d, s, hi);
+            if (e > s) next = buildBuckets(first + d, level + 1, s, e, next);
+            s = e;
+        }
+        return next;
+    }
+
+    /**
+     Builds the subtree of 'node' on 'level' from the sorted bodies lo, ..., hi - 1, which all fall into that node.
+     <p>Every node corresponds to a prefix of the keys. Sorted keys sharing a prefix are adjacent, so a single scan
+     is enough: a body ends up in a leaf one level below the longest prefix it shares with one of its neighbours
+     (or on the maximum depth, if they share more levels). Bodies with equal keys are handled as one, they share a
+     leaf. The path from 'node' down to the leaf of the current body
+     is kept on the stack 'path', the nodes below the prefix shared with the next body are complete once that body is
+     reached.</p>
+     @param next index of the first free node, the children of split nodes are stored from there on.
+     @return index of the first free node after the subtree.
+     */
+    private int buildRange(int node, int level, int lo, int hi, int next, int[] path) {
+        int top = level;
+        path[top] = node;
+        nodes.start[node] = lo;
+        for (int k = lo; k < hi; k++) {
+            long key = keys[k];
+            int equal = k + 1; // end of the bodies with this key
+            while (equal < hi && keys[equal] == key) equal++;
+            int leaf = level;
+            if (k > lo) {
+                int shared = Morton.commonLevels(keys[k - 1], key);
+                while (top > shared) {
+                    int done = path[top--];
+                    nodes.count[done] = k - nodes.start[done];
+                }
+                leaf = shared + 1;
+            }
+            if (equal < hi) leaf = Math.max(leaf, Morton.commonLevels(key, keys[equal]) + 1);
+            leaf = Math.min(leaf, maxDepth);
+            while (top < leaf) {
+                int n = path[top];
+                if (isLeaf(n)) {
+                    nodes.ensureCapacity(next + 8);
+                    nodes.initChildren(n, next);
+                    next += 8;
+                }
+                int child = nodes.firstChild[n] + Morton.digit(key, top + 1);
+                path[++top] = child;
+                nodes.start[child] = k;
+            }
+            k = equal - 1;
+        }
+        while (top >= level) {
+            int done = path[top--];
+            nodes.count[done] = hi - nodes.start[done];
+        }
+        return next;
+    }
+
+    /**
+     @return number of nodes the scan creates below a node on 'level' holding the sorted bodies lo, ..., hi - 1.
+     A node is split unless {@link #staysLeaf(int, int, int)}.
+     */
+    private int countNodes(int level, int lo, int hi) {
+        if (staysLeaf(level, lo, hi)) return 0;
+        int size = 8;
+        for (int d = 0, s = lo; d < 8; d++) {
+            int e = digitEnd(level + 1, d, s, hi);
+            size += countNodes(level + 1, s, e);
+            s = e;
+        }
+        return size;
+    }
+
+    /**
+     @return if a node on 'level' holding the sorted bodies lo, ..., hi - 1 is a leaf: it holds no more than
+     leafCapacity bodies, is on the maximum depth, or all its bodies share one key, which no split separates.
+     */
+    private boolean staysLeaf(int level, int lo, int hi) {
+        return hi - lo <= leafCapacity || level == maxDepth || keys[lo] == keys[hi - 1];
+    }
+
+    // Returns the first of the sorted bodies lo, ..., hi - 1 whose key digit on 'level' is larger than 'digit'.
+    private int digitEnd(int level, int digit, int lo, int hi) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Morton.digit(keys[mid], level) <= digit) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     Partitions the bodies of a node on 'level' by octant and counts the nodes below it, the 8 octants are counted
+     as parallel tasks until a range holds no more than grainSize bodies.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private final class CountTask extends RecursiveAction {
+        final int level, lo, hi;
+        int size; // number of nodes below the node
+        CountTask[] octants; // null if the range was counted serially
+
+        CountTask(int level, int lo, int hi) {
+            this.level = level;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grainSize || staysLeaf(level, lo, hi)) {
+                size = countNodes(level, lo, hi);
+                return;
+            }
+            octants = new CountTask[8];
+            for (int d = 0, s = lo; d < 8; d++) {
+                int e = digitEnd(level + 1, d, s, hi);
+                octants[d] = new CountTask(level + 1, s, e);
+                s = e;
+            }
+            invokeAll(octants);
+            size = 8;
+            for (CountTask octant : octants) {
+                size += octant.size;
+            }
+        }
+    }
+
+    /**
+     Builds the subtree of 'node' for a counted range. The children of the node are stored at 'first', followed by
+     the subtrees of the octants in order, each sized by its count, which is the layout of the serial scan.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private final class BuildTask extends RecursiveAction {
+        private final CountTask range;
+        private final int node, first;
+
+        BuildTask(CountTask range, int node, int first) {
+            this.range = range;
+            this.node = node;
+            this.first = first;
+        }
+
+        @Override
+        protected void compute() {
+            if (range.octants == null) {
+                // empty octants stay as initialized by their parent, like in the serial scan
+                if (range.hi > range.lo) {
+                    buildSerial(node, range.level, range.lo, range.hi, first, buildPath.get());
+                }
+                return;
+            }
+            nodes.start[node] = range.lo;
+            nodes.count[node] = range.hi - range.lo;
+            nodes.initChildren(node, first);
+            BuildTask[] tasks = new BuildTask[8];
+            int next = first + 8;
+            for (int d = 0; d < 8; d++) {
+                tasks[d] = new BuildTask(range.octants[d], first + d, next);
+                next += range.octants[d].size;
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private boolean isLeaf(int n) { return nodes.firstChild[n] == NodePool.NONE; }
+
+    // The nodes and the bodies in tree order, for solvers working on the tree like FmmSolver. Valid after finishTree().
+    NodePool getNodes() { return nodes; }
+
+    int[] getOrder() { return order; }
+
+    int getTreeCount() { return treeCount; }
+
+    // half edge length of the root of the last build
+    double getRootHalf() { return rootHalf; }
+
+    double[] getPx() { return px; }
+
+    double[] getPy() { return py; }
+
+    double[] getPz() { return pz; }
+
+    double[] getPm() { return pm; }
+
+    /**
+     Calculates the total octMass and massCenter of each Subtree, and the quadrupole moments if they are used (see
+     {@link #setQuadrupole(boolean)}), in one pass over the nodes.
+     <p>The children of a node are always stored behind it, by the builds and by the splits of a refit, so a reverse
+     sweep over the pool finishes every node after its children. A node is finished at once: its mass, its mass center
+     and its quadrupole moment are summed from its bodies or its children in one visit.</p>
+     <p>After a parallel build the subtrees of independent nodes are finished in parallel, see
+     {@link AggregateTask}. Once a refit appended nodes the subtrees are no longer contiguous, then the sweep is
+     serial until the next build.</p>
+     */
+    void aggregate() {
+        int size = nodes.size();
+        if (size == 0) return;
+        if (parallelBuild && size > grainSize && size == builtNodes && !isLeaf(ROOT)) {
+            ForkJoinPool.commonPool().invoke(new AggregateTask(ROOT, nodes.firstChild[ROOT], size));
+        } else {
+            aggregate(0, size);
+        }
+    }
+
+    // Finishes the nodes hi - 1, ..., lo in this order.
+    private void aggregate(int lo, int hi) {
+        for (int n = hi - 1; n >= lo; n--) {
+            if (isLeaf(n)) {
+                setLeafMoments(n);
+            } else {
+                setInnerMoments(n);
+            }
+        }
+    }
+
+    /**
+     Finishes the subtree of 'node', whose descendants are the nodes lo, ..., hi - 1. A build stores the 8 children
+     of a node first, then the descendants of each child in the order of the children, so the descendants of every
+     child are a contiguous range, which ends where the descendants of the next inner child start. Ranges of more
+     than grainSize nodes are split into a task per inner child.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private final class AggregateTask extends RecursiveAction {
+        private final int node, lo, hi;
+
+        AggregateTask(int node, int lo, int hi) {
+            this.node = node;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > grainSize) {
+                int first = nodes.firstChild[node];
+                AggregateTask[] tasks = new AggregateTask[8];
+                int count = 0, end = hi;
+                for (int i = first + 7; i >= first; i--) {
+                    if (isLeaf(i)) {
+                        setLeafMoments(i);
+                    } else {
+                        tasks[count++] = new AggregateTask(i, nodes.firstChild[i], end);
+                        end = nodes.firstChild[i];
+                    }
+                }
+                invokeAll(Arrays.asList(tasks).subList(0, count));
+            } else {
+                aggregate(lo, hi);
+            }
+            setInnerMoments(node);
+        }
+    }
+
+    // Mass, mass center and quadrupole moment of leaf n, from its bodies.
+    private void setLeafMoments(int n) {
+        int count = nodes.count[n];
+        int k = nodes.start[n];
+        if (count <= 1) {
+            nodes.mass[n] = count == 0 ? 0 : pm[k];
+            if (count == 1) {
+                nodes.mx[n] = px[k];
+                nodes.my[n] = py[k];
+                nodes.mz[n] = pz[k];
+            }
+            // a single body has no quadrupole moment around itself
+            if (quadrupole) setQuadrupole(n, 0, 0, 0, 0, 0, 0);
+            return;
+        }
+        double m = 0, sx = 0, sy = 0, sz = 0;
+        for (int e = k + count; k < e; k++) {
+            m += pm[k];
+            sx += px[k] * pm[k];
+            sy += py[k] * pm[k];
+            sz += pz[k] * pm[k];
+        }
+        nodes.mass[n] = m;
+        double s = 1.0 / m;
+        nodes.mx[n] = sx * s;
+        nodes.my[n] = sy * s;
+        nodes.mz[n] = sz * s;
+        if (quadrupole) setLeafQuadrupole(n);
+    }
+
+    // Mass, mass center and quadrupole moment of inner node n, from its children.
+    private void setInnerMoments(int n) {
+        double m = 0, sx = 0, sy = 0, sz = 0;
+        for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+            double mi = nodes.mass[i];
+            m += mi;
+            sx += nodes.mx[i] * mi;
+            sy += nodes.my[i] * mi;
+            sz += nodes.mz[i] * mi;
+        }
+        nodes.mass[n] = m;
+        // emptied by update(), exerts no force
+        if (m == 0) {
+            if (quadrupole) setQuadrupole(n, 0, 0, 0, 0, 0, 0);
+            return;
+        }
+        double s = 1.0 / m;
+        nodes.mx[n] = sx * s;
+        nodes.my[n] = sy * s;
+        nodes.mz[n] = sz * s;
+        if (quadrupole) setInnerQuadrupole(n);
+    }
+
+    /**
+     Calculates the traceless quadrupole tensor Q = sum(m * (3 * d * d - |d|² * I)) of leaf n, d being the position
+     of a body relative to the mass center of the node.
+     */
+    private void setLeafQuadrupole(int n) {
+        double xx = 0, xy = 0, xz = 0, yy = 0, yz = 0, zz = 0;
+        for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+            double dx = px[k] - nodes.mx[n];
+            double dy = py[k] - nodes.my[n];
+            double dz = pz[k] - nodes.mz[n];
+            double d2 = dx * dx + dy * dy + dz * dz;
+            double m = pm[k];
+            xx += m * (3 * dx * dx - d2);
+            xy += m * 3 * dx * dy;
+            xz += m * 3 * dx * dz;
+            yy += m * (3 * dy * dy - d2);
+            yz += m * 3 * dy * dz;
+            zz += m * (3 * dz * dz - d2);
+        }
+        setQuadrupole(n, xx, xy, xz, yy, yz, zz);
+    }
+
+    // Sums the moments of the children, each shifted from the mass center of the child to the one of node n.
+    private void setInnerQuadrupole(int n) {
+        double xx = 0, xy = 0, xz = 0, yy = 0, yz = 0, zz = 0;
+        for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+            if (nodes.count[i] == 0) continue;
+            double m = nodes.mass[i];
+            double sx = nodes.mx[i] - nodes.mx[n];
+            double sy = nodes.my[i] - nodes.my[n];
+            double sz = nodes.mz[i] - nodes.mz[n];
+            double s2 = sx * sx + sy * sy + sz * sz;
+            xx += nodes.qxx[i] + m * (3 * sx * sx - s2);
+            xy += nodes.qxy[i] + m * 3 * sx * sy;
+            xz += nodes.qxz[i] + m * 3 * sx * sz;
+            yy += nodes.qyy[i] + m * (3 * sy * sy - s2);
+            yz += nodes.qyz[i] + m * 3 * sy * sz;
+            zz += nodes.qzz[i] + m * (3 * sz * sz - s2);
+        }
+        setQuadrupole(n, xx, xy, xz, yy, yz, zz);
+    }
+
+    private void setQuadrupole(int n, double xx, double xy, double xz, double yy, double yz, double zz) {
+        nodes.qxx[n] = xx;
+        nodes.qxy[n] = xy;
+        nodes.qxz[n] = xz;
+        nodes.qyy[n] = yy;
+        nodes.qyz[n] = yz;
+        nodes.qzz[n] = zz;
+    }
+
+    /**
+     Computes the opening radius of every inner node with the criterion, see {@link MultipoleAcceptanceCriterion}.
+     bmax is the distance of the corner farthest from the mass center.
+     */
+    private void setOpeningRadii() {
+        boolean massCenter = criterion.usesMassCenter();
+        for (int n = 0; n < nodes.size(); n++) {
+            if (isLeaf(n)) continue;
+            double h = nodes.half[n];
+            double bx = h + Math.abs(nodes.mx[n] - nodes.cx[n]);
+            double by = h + Math.abs(nodes.my[n] - nodes.cy[n]);
+            double bz = h + Math.abs(nodes.mz[n] - nodes.cz[n]);
+            double bmax2 = bx * bx + by * by + bz * bz;
+            nodes.open2[n] = criterion.openingRadius2(2.0 * h, Math.sqrt(bmax2), nodes.mass[n], Theta);
+            nodes.reach2[n] = massCenter ? bmax2 : 0;
+        }
+        radiiValid = true;
+    }
+
+    public void setTheta(double T) {
+        Theta = T;
+        radiiValid = false;
+    }
+
+    public double getTheta() { return Theta; }
+
+    /**
+     @return number of nodes used as a whole for all bodies in the last force calculation.
+     */
+    public long getCellInteractions() { return sumInteractions(cellInteractions); }
+
+    /**
+     @return number of single bodies acting on all bodies in the last force calculation.
+     */
+    public long getBodyInteractions() { return sumInteractions(bodyInteractions); }
+
+    private long sumInteractions(int[] interactions) {
+        if (store == null) return 0;
+        long sum = 0;
+        for (int i = 0; i < bodyCount; i++) {
+            sum += interactions[order[i]];
+        }
+        return sum;
+    }
+
+    // Prepares the walks of the force calculation, must be called by the calling thread before they start.
+    private void prepareWalks() {
+        if (!radiiValid) setOpeningRadii();
+        if (cellInteractions.length < store.size()) {
+            cellInteractions = new int[store.size()];
+            bodyInteractions = new int[store.size()];
+        }
+    }
 
     /**
      @param b The Force impacting this body by other Plantes/Clusters will be calculated.
-     @return Sum of the forces of Octants far enough using {@link OctantNode#forceEstimate(Body, double)}
+     @return Sum of the forces of Octants far enough using {@link #forceEstimate(int, double, double, double, double, double, double)}.
+     The force is also stored as the current force of b, so b has to belong to the store of the tree: a body of
+     another store, e.g. one removed by {@link BodyStore#cull(double)}, is rejected with an IllegalArgumentException.
      */
     public Vector3 calcForce(Body b) {
-        if (root == null) return new Vector3(0, 0, 0);
-        return root.forceEstimate(b, Theta);
+        return calcForce(b, new Vector3(0, 0, 0));
+    }
+
+    // calcForce(b), with the force written into 'force' instead of a new vector.
+    public Vector3 calcForce(Body b, Vector3 force) {
+        if (store != null && b.getStore() != store) {
+            throw new IllegalArgumentException("the body does not belong to the store of this tree");
+        }
+        if (nodes.size() == 0) return force.set(0, 0, 0);
+        prepareWalks();
+        calcForce(b.getIndex());
+        return b.getForce(force);
+    }
+
+    /**
+     Calculates the force on every body added to this tree and stores it in the force columns of the store.
+     The bodies are processed in tree order, so that consecutive bodies walk through the same nodes. With more than
+     one thread (see {@link #setThreads(int)}) the tree order is split into chunks that are processed by the threads
+     of a ForkJoinPool, idle threads steal the chunks that are left. Every force is summed up in the same order as
+     in the serial calculation, so the results are exactly the same.
+     */
+    public void calcForces() {
+        if (nodes.size() == 0) return;
+        prepareWalks();
+        if (groupSize > 0) {
+            calcGroupForces();
+            return;
+        }
+        if (forcePool != null && bodyCount > FORCE_CHUNK) {
+            forceLoop.run(forcePool, 0, bodyCount, FORCE_CHUNK);
+        } else {
+            calcForces(0, bodyCount);
+        }
+    }
+
+    /**
+     Calculates the force on the bodies active[0], ..., active[count - 1] (store indices) only, like
+     {@link #calcForces()} without the group walk.
+     */
+    public void calcForces(int[] active, int count) {
+        if (nodes.size() == 0) return;
+        prepareWalks();
+        this.active = active;
+        // a smaller count reuses the tasks of a larger one, see Parallel.Loop
+        if (forcePool != null && count > FORCE_CHUNK) {
+            activeLoop.run(forcePool, 0, count, FORCE_CHUNK);
+        } else {
+            calcActiveForces(0, count);
+        }
+        this.active = null;
+    }
+
+    // Calculates the forces on the bodies active[lo], ..., active[hi - 1].
+    private void calcActiveForces(int lo, int hi) {
+        for (int i = lo; i < hi; i++) {
+            calcForce(active[i]);
+        }
+    }
+
+    // Calculates the forces on the bodies outside of the root by walking the tree, for solvers working on the tree.
+    void calcOutsideForces() {
+        if (nodes.size() == 0) return;
+        prepareWalks();
+        calcForces(treeCount, bodyCount);
+    }
+
+    // Calculates the forces on the bodies lo, ..., hi - 1 of the tree order.
+    private void calcForces(int lo, int hi) {
+        for (int i = lo; i < hi; i++) {
+            calcForce(order[i]);
+        }
+    }
+
+    /**
+     Group walk (Barnes 1990): for every group one walk builds an {@link InteractionList} that is valid for all bodies
+     of the group, then the list is applied to each of them. A cell is only accepted if it is far enough from the
+     bounding box of the group, so it would be accepted by the walk of every single body. Groups are processed in
+     parallel like the bodies in {@link #calcForces()}, bodies outside of the root still walk the tree themselves.
+     <p>The opening radii are scaled with the largest target scale of the bodies of the group, so every body of the
+     group would have accepted the cell itself.</p>
+     */
+    private void calcGroupForces() {
+        findGroups();
+        if (forcePool != null && groupCount > GROUP_CHUNK) {
+            groupLoop.run(forcePool, 0, groupCount, GROUP_CHUNK);
+        } else {
+            calcGroupForces(0, groupCount);
+        }
+        calcForces(treeCount, bodyCount);
+    }
+
+    private void findGroups() {
+        groupCount = 0;
+        int[] stack = walkStack.get();
+        int top = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int n = stack[--top];
+            if (nodes.count[n] == 0) continue;
+            if (nodes.count[n] <= groupSize || isLeaf(n)) {
+                if (groupCount == groups.length) groups = Arrays.copyOf(groups, 2 * groupCount);
+                groups[groupCount++] = n;
+            } else {
+                for (int first = nodes.firstChild[n], i = first + 7; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
     }
 
+    // Calculates the forces on the bodies of the groups lo, ..., hi - 1.
+    private void calcGroupForces(int lo, int hi) {
+        double eps2 = Gravity.softening2();
+        InteractionList list = interactions.get();
+        list.quadrupole = quadrupole;
+        for (int g = lo; g < hi; g++) {
+            int start = nodes.start[groups[g]];
+            int end = start + nodes.count[groups[g]];
+            walkGroup(groups[g], start, end, list);
+            applyInteractions(list, groups[g], eps2);
+            for (int k = start; k < end; k++) {
+                int b = order[k];
+                store.fx[b] = list.gx[k - start];
+                store.fy[b] = list.gy[k - start];
+                store.fz[b] = list.gz[k - start];
+                cellInteractions[b] = list.cells;
+                bodyInteractions[b] = list.bodies - 1;
+            }
+        }
+    }
+
+    // Fills 'list' with the cells and bodies acting on the bodies start, ..., end - 1 of the tree order, which are the
+    // ones of node 'group'. Called before the forces of the group are overwritten, as the criterion may scale with them.
+    private void walkGroup(int group, int start, int end, InteractionList list) {
+        double scale = 0;
+        for (int k = start; k < end; k++) {
+            int b = order[k];
+            scale = Math.max(scale, criterion.targetScale(store.fx[b], store.fy[b], store.fz[b], pm[k]));
+        }
+        double[] ox = criterion.usesMassCenter() ? nodes.mx : nodes.cx;
+        double[] oy = criterion.usesMassCenter() ? nodes.my : nodes.cy;
+        double[] oz = criterion.usesMassCenter() ? nodes.mz : nodes.cz;
+        double minX = px[start], minY = py[start], minZ = pz[start];
+        double maxX = minX, maxY = minY, maxZ = minZ;
+        for (int k = start + 1; k < end; k++) {
+            minX = Math.min(minX, px[k]);
+            minY = Math.min(minY, py[k]);
+            minZ = Math.min(minZ, pz[k]);
+            maxX = Math.max(maxX, px[k]);
+            maxY = Math.max(maxY, py[k]);
+            maxZ = Math.max(maxZ, pz[k]);
+        }
+        // the units of applySingleCells
+        double x = nodes.cx[group], y = nodes.cy[group], z = nodes.cz[group];
+        double unit = 1 / (2 * nodes.half[group]), massUnit = nodes.mass[ROOT] > 0 ? 1 / nodes.mass[ROOT] : 0;
+        list.clear();
+        int[] stack = walkStack.get();
+        int top = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int n = stack[--top];
+            if (nodes.count[n] == 0) continue;
+            if (isLeaf(n)) {
+                for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+                    list.addBody(px[k], py[k], pz[k], pm[k]);
+                }
+                continue;
+            }
+            // distance of the (mass) center to the nearest point of the bounding box
+            double dx = Math.max(0, Math.max(minX - ox[n], ox[n] - maxX));
+            double dy = Math.max(0, Math.max(minY - oy[n], oy[n] - maxY));
+            double dz = Math.max(0, Math.max(minZ - oz[n], oz[n] - maxZ));
+            double r2 = dx * dx + dy * dy + dz * dz;
+            if (r2 > nodes.reach2[n] && r2 > nodes.open2[n] * scale) {
+                if (singlePrecision) {
+                    list.addSingleCell(nodes, n, x, y, z, unit, massUnit);
+                } else {
+                    list.addCell(nodes, n);
+                }
+            } else {
+                for (int first = nodes.firstChild[n], i = first + 7; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     Calculates the force of all cells and bodies of 'list' on the bodies of the group node, in the forces of the
+     list. Monopoles are summed by {@link InteractionKernel}, the group itself is part of the bodies of the list,
+     which is fine as bodies exert no force on themselves.
+     */
+    private void applyInteractions(InteractionList list, int group, double eps2) {
+        int start = nodes.start[group];
+        int end = start + nodes.count[group];
+        list.clearForces(end - start);
+        if (singlePrecision) {
+            applySingleCells(list, group, eps2);
+        } else {
+            InteractionKernel.accumulate(px, py, pz, pm, start, end, list.cx, list.cy, list.cz, list.cm, 0, list.cells,
+                    eps2, list.gx, list.gy, list.gz, 0);
+        }
+        InteractionKernel.accumulate(px, py, pz, pm, start, end, list.bx, list.by, list.bz, list.bm, 0, list.bodies,
+                eps2, list.gx, list.gy, list.gz, 0);
+        if (!list.quadrupole) return;
+        for (int k = start; k < end; k++) {
+            double x = px[k], y = py[k], z = pz[k];
+            for (int i = 0; i < list.cells; i++) {
+                double dx = list.cx[i] - x;
+                double dy = list.cy[i] - y;
+                double dz = list.cz[i] - z;
+                double r2 = dx * dx + dy * dy + dz * dz;
+                if (r2 == 0) continue;
+                Gravity.addQuadrupoleForce(dx, dy, dz, r2, pm[k], list.qxx[i], list.qxy[i], list.qxz[i], list.qyy[i],
+                        list.qyz[i], list.qzz[i], list.gx, list.gy, list.gz, k - start);
+            }
+        }
+    }
+
+    /**
+     Single precision monopoles of the cells of 'list' on the bodies of the group node, see
+     {@link #setSinglePrecision(boolean)}. With the lengths in units of the edge length L of the group node and the
+     masses in units of the mass M of the root, the force on a body of mass m is G * m * M / L² times the sum the
+     kernel calculates, so the float values stay near 1 for the group and grow only with the distance of the cells.
+     The walk has stored the cells in these units already.
+     */
+    private void applySingleCells(InteractionList list, int group, double eps2) {
+        double mass = nodes.mass[ROOT];
+        if (list.cells == 0 || mass == 0) return;
+        int start = nodes.start[group];
+        int n = nodes.count[group];
+        list.ensureSingle(n);
+        double l = 2 * nodes.half[group];
+        double x = nodes.cx[group], y = nodes.cy[group], z = nodes.cz[group];
+        for (int k = 0; k < n; k++) {
+            list.tx[k] = (float) ((px[start + k] - x) / l);
+            list.ty[k] = (float) ((py[start + k] - y) / l);
+            list.tz[k] = (float) ((pz[start + k] - z) / l);
+        }
+        InteractionKernel.accumulate(list.tx, list.ty, list.tz, 0, n, list.sx, list.sy, list.sz, list.sm, 0,
+                list.cells, (float) (eps2 / (l * l)), Body.G * mass / (l * l), list.gx, list.gy, list.gz, 0);
+        for (int k = 0; k < n; k++) {
+            list.gx[k] *= pm[start + k];
+            list.gy[k] *= pm[start + k];
+            list.gz[k] *= pm[start + k];
+        }
+    }
+
+    private void calcForce(int b) {
+        forceEstimate(b, store.x[b], store.y[b], store.z[b], store.mass[b], Gravity.softening2());
+    }
+
+    /**
+     Stores the force of the whole tree on body b at (x, y, z) with mass m in the force columns of the store.
+     As soon as a node is far enough from the body (its distance is larger than the opening radius of the criterion,
+     compared squared), its total mass and mass center are used as a point mass, see
+     {@link Gravity#factor(double, double, double)}.
+     Otherwise the 8 octants of the node are estimated. With {@link #setQuadrupole(boolean)} the quadrupole moment
+     of an accepted node is added, unsoftened, as the node is far away from the body anyway.
+     <p>The walk is iterative: the nodes still to be estimated are kept on the explicit stack of the thread, in the
+     same order as the recursive walk visits them. The force is summed up in local variables, nothing is
+     allocated.</p>
+     */
+    private void forceEstimate(int b, double x, double y, double z, double m, double eps2) {
+        double scale = criterion.targetScale(store.fx[b], store.fy[b], store.fz[b], m);
+        store.clearForce(b); // the monopoles are summed in fx, fy, fz, the quadrupoles directly in the store
+        double[] ox = criterion.usesMassCenter() ? nodes.mx : nodes.cx;
+        double[] oy = criterion.usesMassCenter() ? nodes.my : nodes.cy;
+        double[] oz = criterion.usesMassCenter() ? nodes.mz : nodes.cz;
+        double fx = 0, fy = 0, fz = 0;
+        int cells = 0, bodies = 0;
+        int[] stack = walkStack.get();
+        int top = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int n = stack[--top];
+            if (isLeaf(n)) {
+                for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+                    if (order[k] == b) continue;
+                    double dx = px[k] - x;
+                    double dy = py[k] - y;
+                    double dz = pz[k] - z;
+                    double f = Gravity.factor(dx * dx + dy * dy + dz * dz, m * pm[k], eps2);
+                    fx += dx * f;
+                    fy += dy * f;
+                    fz += dz * f;
+                    bodies++;
+                }
+                continue;
+            }
+            double dx = ox[n] - x;
+            double dy = oy[n] - y;
+            double dz = oz[n] - z;
+            double d2 = dx * dx + dy * dy + dz * dz;
+            if (d2 > nodes.reach2[n] && d2 > nodes.open2[n] * scale) {
+                cells++;
+                dx = nodes.mx[n] - x;
+                dy = nodes.my[n] - y;
+                dz = nodes.mz[n] - z;
+                double r2 = dx * dx + dy * dy + dz * dz;
+                double f = Gravity.factor(r2, m * nodes.mass[n], eps2);
+                fx += dx * f;
+                fy += dy * f;
+                fz += dz * f;
+                if (quadrupole && r2 > 0) {
+                    Gravity.addQuadrupoleForce(dx, dy, dz, r2, m, nodes.qxx[n], nodes.qxy[n], nodes.qxz[n],
+                            nodes.qyy[n], nodes.qyz[n], nodes.qzz[n], store.fx, store.fy, store.fz, b);
+                }
+            } else {
+                for (int first = nodes.firstChild[n], i = first + 7; i >= first; i--) {
+                    stack[top++] = i;
+                }
+            }
+        }
+        store.fx[b] += fx;
+        store.fy[b] += fy;
+        store.fz[b] += fz;
+        cellInteractions[b] = cells;
+        bodyInteractions[b] = bodies;
+    }
+
+    /**
+     Draws Octants in Areas where there is a body stored, using the color of the body.
+     */
     public void drawOctant() {
-        if (root == null) return;
-        root.drawOct();
+        if (nodes.size() == 0) return;
+        drawOct(ROOT);
+    }
+
+    private int drawOct(int n) {
+        int counter = 0;
+        if (isLeaf(n) && nodes.count[n] > 0) {
+            counter++;
+            StdDraw.setPenColor(store.getColor(order[nodes.start[n]]));
+            StdDraw.square(nodes.cx[n], nodes.cy[n], nodes.half[n]);
+        } else if (!isLeaf(n)) {
+            for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                counter += drawOct(i);
+            }
+        }
+        return counter;
     }
 
     public String toString() {
-        if (root != null) return root.toString();
-        else return "Empty";
+        if (nodes.size() == 0) return "Empty";
+        StringBuilder out = new StringBuilder();
+        toString(ROOT, out);
+        return out.toString();
+    }
+
+    private void toString(int n, StringBuilder out) {
+        if (isLeaf(n)) {
+            for (int k = nodes.start[n], e = k + nodes.count[n]; k < e; k++) {
+                out.append(store.getName(order[k])).append(", ");
+            }
+        } else {
+            for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                toString(i, out);
+            }
+        }
     }
 
     public int numberOfBodies() {
-        if (root != null) return root.numberOfBodies();
-        else return 0;
+        if (nodes.size() == 0) return 0;
+        return nodes.count[ROOT];
     }
 
     public int getHeight() {
-        if (root == null) return 0;
-         else return root.getMaxHeight() + 1;
+        if (nodes.size() == 0) return 0;
+        int maxDepth = 0;
+        int[] stack = walkStack.get();
+        int top = 0;
+        stack[top++] = ROOT;
+        stack[top++] = 0;
+        while (top > 0) {
+            int depth = stack[--top];
+            int n = stack[--top];
+            if (isLeaf(n)) {
+                if (depth > maxDepth) maxDepth = depth;
+                continue;
+            }
+            for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                stack[top++] = i;
+                stack[top++] = depth + 1;
+            }
+        }
+        return maxDepth + 1;
     }
 
+    /**
+     @return number of bodies stored in leaves at depth 'level' below the root.
+     */
     public int getNumberOfBodiesAtLevel(int level) {
-        if (root == null) return 0;
+        if (nodes.size() == 0) return 0;
         if (level <= 0) {
             return 0;
         }
-        return root.numberOfBodiesAtLevel(level);
+        int count = 0;
+        int[] stack = walkStack.get();
+        int top = 0;
+        stack[top++] = ROOT;
+        stack[top++] = 0;
+        while (top > 0) {
+            int depth = stack[--top];
+            int n = stack[--top];
+            if (isLeaf(n)) {
+                if (depth == level) count += nodes.count[n];
+            } else if (depth < level) {
+                for (int i = nodes.firstChild[n], e = i + 8; i < e; i++) {
+                    stack[top++] = i;
+                    stack[top++] = depth + 1;
+                }
+            }
+        }
+        return count;
     }
 
 }
@@ -1,8 +1,17 @@
 import java.awt.*;
 
 // This class represents vectors in a 3D vector space.
+// plus, minus and times return new vectors. Hot code uses the in-place methods (set, addScaled) and the squared
+// lengths instead, with a scratch vector of the thread where it needs a temporary one.
 public class Vector3 {
 
+    private static final int SCRATCH_SLOTS = 4;
+    private static final ThreadLocal<Vector3[]> scratch = ThreadLocal.withInitial(() -> {
+        Vector3[] vectors = new Vector3[SCRATCH_SLOTS];
+        for (int i = 0; i < SCRATCH_SLOTS; i++) vectors[i] = new Vector3(0, 0, 0);
+        return vectors;
+    });
+
     //private modifiers
     private double x;
     private double y;
@@ -15,6 +24,41 @@ public class Vector3 {
         this.z = z;
     }
 
+    public double getX() { return x; }
+
+    public double getY() { return y; }
+
+    public double getZ() { return z; }
+
+    /**
+     @param slot number of the vector, from 0 to 3.
+     @return scratch vector 'slot' of the calling thread, with any content. It is the same object on every call, so
+     it must not be kept, nor be used by code that might ask for the same slot before it is done with it.
+     */
+    public static Vector3 scratch(int slot) { return scratch.get()[slot]; }
+
+    // Sets the coordinates of this vector and returns it.
+    public Vector3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    // Sets this vector to the coordinates of 'v' and returns it.
+    public Vector3 set(Vector3 v) { return set(v.x, v.y, v.z); }
+
+    // Adds 'v' times 's' to this vector and returns it.
+    public Vector3 addScaled(Vector3 v, double s) { return addScaled(v.x, v.y, v.z, s); }
+
+    // Adds the vector (vx, vy, vz) times 's' to this vector and returns it.
+    public Vector3 addScaled(double vx, double vy, double vz, double s) {
+        x += vx * s;
+        y += vy * s;
+        z += vz * s;
+        return this;
+    }
+
     // Returns the sum of this vector and vector 'v'.
     public Vector3 plus(Vector3 v) {
         return new Vector3(x + v.x, y + v.y, z + v.z);
@@ -33,16 +77,29 @@ public class Vector3 {
     // Returns the Euclidean distanceTo of this vector
     // to the specified vector 'v'.
     public double distanceTo(Vector3 v) {
-        double dX = x-v.x;
-        double dY = y-v.y;
-        double dZ = z-v.z;
+        return Math.sqrt(distanceSquared(v));
+    }
+
+    // Returns the squared distance of this vector to 'v', comparisons of distances do not need the root.
+    public double distanceSquared(Vector3 v) {
+        return distanceSquared(x, y, z, v.x, v.y, v.z);
+    }
 
-        return Math.sqrt(dX*dX+dY*dY+dZ*dZ);
+    // Returns the squared distance between the points (x1, y1, z1) and (x2, y2, z2).
+    public static double distanceSquared(double x1, double y1, double z1, double x2, double y2, double z2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        double dz = z1 - z2;
+        return dx * dx + dy * dy + dz * dz;
     }
 
     // Returns the length (norm) of this vector.
     public double length() {
-        return distanceTo(new Vector3(0, 0, 0));
+        return Math.sqrt(lengthSquared());
+    }
+
+    public double lengthSquared() {
+        return x * x + y * y + z * z;
     }
 
     // Normalizes this vector: changes the length of this vector such that it becomes 1.